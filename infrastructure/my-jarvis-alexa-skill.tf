@@ -138,6 +138,10 @@ resource "aws_lambda_function" "my_jarvis_alexa_skill_handler" {
   runtime          = "java21"
   memory_size      = 512
   timeout          = 60
+  publish          = true
+  snap_start {
+    apply_on = "PublishedVersions"
+  }
   environment {
     variables = {
       OPENAI_API_KEY                = var.openai_api_key
@@ -150,24 +154,59 @@ resource "aws_lambda_function" "my_jarvis_alexa_skill_handler" {
       REDIS_LANGCACHE_API_KEY       = var.langcache_api_key
       REDIS_LANGCACHE_CACHE_ID      = var.langcache_cache_id
       REDIS_AGENT_MEMORY_SERVER_URL = "http://${aws_lb.agent_memory_server.dns_name}:8000"
-      KNOWLEDGE_BASE_BUCKET_NAME    = local.knowledge_base_bucket_name
     }
   }
 }
 
+# SnapStart only applies to published versions, so callers invoke them through an alias
+resource "aws_lambda_alias" "my_jarvis_alexa_skill_handler_live" {
+  name             = "live"
+  function_name    = aws_lambda_function.my_jarvis_alexa_skill_handler.function_name
+  function_version = aws_lambda_function.my_jarvis_alexa_skill_handler.version
+}
+
 resource "aws_lambda_permission" "my_jarvis_alexa_skill_handler_alexa_trigger" {
   statement_id       = "AllowExecutionFromAlexa"
   action             = "lambda:InvokeFunction"
   function_name      = aws_lambda_function.my_jarvis_alexa_skill_handler.function_name
+  qualifier          = aws_lambda_alias.my_jarvis_alexa_skill_handler_live.name
   principal          = "alexa-appkit.amazon.com"
   event_source_token = var.alexa_skill_id != "" ? var.alexa_skill_id : null
 }
 
-resource "aws_lambda_permission" "my_jarvis_alexa_skill_handler_cloudwatch_trigger" {
+# The scheduled sync runs as its own function, so it only loads the ingestion
+# pipeline and can be sized and concurrency-limited apart from the skill
+resource "aws_lambda_function" "my_jarvis_knowledge_base_sync" {
+  depends_on = [
+    null_resource.my_jarvis_alexa_skill_handler_build,
+    aws_iam_role.my_jarvis_alexa_skill_handler_role,
+    aws_ecs_service.agent_memory_server_api,
+    aws_s3_object.my_jarvis_skill_handler_lambda_jar
+  ]
+  function_name                  = "${var.application_prefix}-knowledge-base-sync"
+  description                    = "Scheduled knowledge base sync for the My Jarvis Alexa Skill"
+  s3_bucket                      = aws_s3_bucket.my_jarvis_alexa_skill_handler_lambda_artifacts.id
+  s3_key                         = aws_s3_object.my_jarvis_skill_handler_lambda_jar.key
+  source_code_hash               = data.local_file.my_jarvis_skill_handler_jar_file.content_base64sha256
+  handler                        = "io.redis.devrel.demos.myjarvis.KnowledgeBaseSyncHandler::handleRequest"
+  role                           = aws_iam_role.my_jarvis_alexa_skill_handler_role.arn
+  runtime                        = "java21"
+  memory_size                    = 1024
+  timeout                        = 300
+  reserved_concurrent_executions = 1
+  environment {
+    variables = {
+      REDIS_AGENT_MEMORY_SERVER_URL = "http://${aws_lb.agent_memory_server.dns_name}:8000"
+      KNOWLEDGE_BASE_BUCKET_NAME    = local.knowledge_base_bucket_name
+    }
+  }
+}
+
+resource "aws_lambda_permission" "my_jarvis_knowledge_base_sync_cloudwatch_trigger" {
   statement_id  = "AllowExecutionFromCloudWatch"
   action        = "lambda:InvokeFunction"
   principal     = "events.amazonaws.com"
-  function_name = aws_lambda_function.my_jarvis_alexa_skill_handler.function_name
+  function_name = aws_lambda_function.my_jarvis_knowledge_base_sync.function_name
   source_arn    = aws_cloudwatch_event_rule.my_jarvis_alexa_skill_handler_knowledge_base.arn
 }
 
@@ -179,11 +218,10 @@ resource "aws_cloudwatch_event_rule" "my_jarvis_alexa_skill_handler_knowledge_ba
 
 resource "aws_cloudwatch_event_target" "my_jarvis_alexa_skill_handler_knowledge_base" {
   rule      = aws_cloudwatch_event_rule.my_jarvis_alexa_skill_handler_knowledge_base.name
-  target_id = aws_lambda_function.my_jarvis_alexa_skill_handler.function_name
-  arn       = aws_lambda_function.my_jarvis_alexa_skill_handler.arn
-  input     = templatefile("templates/knowledge-base-call.tftpl", {})
+  target_id = aws_lambda_function.my_jarvis_knowledge_base_sync.function_name
+  arn       = aws_lambda_function.my_jarvis_knowledge_base_sync.arn
 }
 
 output "my_jarvis_alexa_skill_handler_arn" {
-  value = aws_lambda_function.my_jarvis_alexa_skill_handler.arn
+  value = aws_lambda_alias.my_jarvis_alexa_skill_handler_live.arn
 }
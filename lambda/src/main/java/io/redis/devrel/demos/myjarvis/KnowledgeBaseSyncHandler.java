@@ -0,0 +1,54 @@
+package io.redis.devrel.demos.myjarvis;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.ScheduledEvent;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import dev.langchain4j.data.document.parser.apache.pdfbox.ApachePdfBoxDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentByParagraphSplitter;
+import io.redis.devrel.demos.myjarvis.clients.AgentMemoryClient;
+import io.redis.devrel.demos.myjarvis.ingestion.KnowledgeBaseIngestionService;
+import io.redis.devrel.demos.myjarvis.services.MemoryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+
+import static io.redis.devrel.demos.myjarvis.helpers.Constants.*;
+
+// Entry point for the scheduled knowledge base sync. It runs as its own function,
+// so ingestion never shares cold starts, memory or concurrency with voice traffic,
+// and it only initializes what the ingestion pipeline needs.
+public class KnowledgeBaseSyncHandler implements RequestHandler<ScheduledEvent, Void> {
+
+    private static final Logger logger = LoggerFactory.getLogger(KnowledgeBaseSyncHandler.class);
+
+    // Leaves room to write the checkpoint of the file in progress
+    private static final Duration CHECKPOINT_MARGIN = Duration.ofSeconds(10);
+
+    private static final AgentMemoryClient agentMemoryClient = AgentMemoryClient.builder()
+            .baseUrl(REDIS_AGENT_MEMORY_SERVER_URL)
+            .build();
+
+    private static final KnowledgeBaseIngestionService ingestionService = new KnowledgeBaseIngestionService(
+            () -> new ApachePdfBoxDocumentParser(true),
+            () -> new DocumentByParagraphSplitter(
+                    Integer.parseInt(MAX_SEGMENT_SIZE_IN_CHARS),
+                    Integer.parseInt(MAX_SEGMENT_OVERLAP_IN_CHARS)),
+            AmazonS3ClientBuilder::defaultClient,
+            new MemoryService(agentMemoryClient));
+
+    @Override
+    public Void handleRequest(ScheduledEvent event, Context context) {
+        logger.debug("Received scheduled event {} from {}", event.getId(), event.getSource());
+
+        if (context == null) {
+            ingestionService.sync();
+            return null;
+        }
+
+        var remainingTime = Duration.ofMillis(context.getRemainingTimeInMillis());
+        ingestionService.sync(remainingTime.minus(CHECKPOINT_MARGIN));
+        return null;
+    }
+}
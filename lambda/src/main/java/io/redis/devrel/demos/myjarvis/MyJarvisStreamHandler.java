@@ -3,15 +3,17 @@ package io.redis.devrel.demos.myjarvis;
 import com.amazon.ask.Skill;
 import com.amazon.ask.SkillStreamHandler;
 import com.amazon.ask.Skills;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.parser.apache.pdfbox.ApachePdfBoxDocumentParser;
-import dev.langchain4j.data.document.splitter.DocumentByParagraphSplitter;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.cohere.CohereScoringModel;
 import dev.langchain4j.model.openai.OpenAiChatModel;
 import dev.langchain4j.model.scoring.ScoringModel;
+import io.redis.devrel.demos.myjarvis.clients.AgentMemoryClient;
+import io.redis.devrel.demos.myjarvis.clients.HttpClients;
+import io.redis.devrel.demos.myjarvis.clients.JsonStreamReader;
+import io.redis.devrel.demos.myjarvis.extensions.LexicalScoringModel;
+import io.redis.devrel.demos.myjarvis.extensions.WorkingMemoryStore;
 import io.redis.devrel.demos.myjarvis.handlers.*;
+import io.redis.devrel.demos.myjarvis.helpers.Lazy;
 import io.redis.devrel.demos.myjarvis.helpers.UserDoesNotExistExceptionHandler;
 import io.redis.devrel.demos.myjarvis.helpers.UserValidationInterceptor;
 import io.redis.devrel.demos.myjarvis.services.*;
@@ -19,18 +21,30 @@ import io.redis.devrel.demos.myjarvis.tools.AgentMemoryServerTool;
 import io.redis.devrel.demos.myjarvis.tools.DateTimeTool;
 import io.redis.devrel.demos.myjarvis.tools.UserMemoryTool;
 
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 import static io.redis.devrel.demos.myjarvis.helpers.Constants.*;
 
-public class MyJarvisStreamHandler extends SkillStreamHandler {
+public class MyJarvisStreamHandler extends SkillStreamHandler implements Resource {
 
-    // LangChain4j components
-    private static final DocumentParser documentParser = new ApachePdfBoxDocumentParser(true);
-    private static final DocumentSplitter documentSplitter = new DocumentByParagraphSplitter(
-            Integer.parseInt(MAX_SEGMENT_SIZE_IN_CHARS),
-            Integer.parseInt(MAX_SEGMENT_OVERLAP_IN_CHARS)
-    );
+    private static final Logger logger = LoggerFactory.getLogger(MyJarvisStreamHandler.class);
+    private static final String PRIMING_REQUEST = "/priming/launch-request.json";
+    private static final Duration CACHE_WRITE_FLUSH_TIMEOUT =
+            Duration.ofMillis(Long.parseLong(LANGCACHE_WRITE_FLUSH_TIMEOUT_IN_MILLIS));
 
     private static final ChatModel chatModel = OpenAiChatModel.builder()
             .apiKey(OPENAI_API_KEY)
@@ -39,32 +53,116 @@ public class MyJarvisStreamHandler extends SkillStreamHandler {
             .maxTokens(Integer.parseInt(OPENAI_CHAT_MAX_TOKENS))
             .build();
 
-    private static final ScoringModel scoringModel = CohereScoringModel.builder()
-            .apiKey(COHERE_API_KEY)
-            .modelName(COHERE_MODEL_NAME)
-            .build();
+    // The reminder service and the scoring model only serve some intents,
+    // so they are created on first use instead of on every cold start.
+    private static final Lazy<ScoringModel> scoringModel = Lazy.of("scoring model",
+            () -> "local".equalsIgnoreCase(RERANKING_STRATEGY)
+                    ? new LexicalScoringModel()
+                    : CohereScoringModel.builder()
+                            .apiKey(COHERE_API_KEY)
+                            .modelName(COHERE_MODEL_NAME)
+                            .build());
 
     // Service components
+    private static final AgentMemoryClient agentMemoryClient = AgentMemoryClient.builder()
+            .baseUrl(REDIS_AGENT_MEMORY_SERVER_URL)
+            .build();
+
+    private static final WorkingMemoryStore workingMemoryStore = WorkingMemoryStore.builder()
+            .agentMemoryClient(agentMemoryClient)
+            .maxContextWindow(Integer.parseInt(WORKING_MEMORY_MAX_PROMPT_TOKENS))
+            .build();
+
     private static final LangCacheService langCacheService = LangCacheService.builder()
             .baseUrl(REDIS_LANGCACHE_API_BASE_URL)
             .apiKey(REDIS_LANGCACHE_API_KEY)
             .cacheId(REDIS_LANGCACHE_CACHE_ID)
+            .timeToLiveInSeconds(Long.parseLong(LANGCACHE_TIME_TO_LIVE_IN_SECONDS))
+            .similarityThreshold(Double.parseDouble(LANGCACHE_SIMILARITY_THRESHOLD))
+            .intentSimilarityThresholds(LangCacheService.parseSimilarityThresholds(
+                    LANGCACHE_INTENT_SIMILARITY_THRESHOLDS))
+            .localCache(new LocalResponseCache(
+                    Integer.parseInt(LOCAL_RESPONSE_CACHE_MAX_USERS),
+                    Integer.parseInt(LOCAL_RESPONSE_CACHE_MAX_ENTRIES_PER_USER),
+                    Boolean.parseBoolean(LOCAL_RESPONSE_CACHE_NEAR_DUPLICATES),
+                    Integer.parseInt(LOCAL_RESPONSE_CACHE_MAX_HAMMING_DISTANCE),
+                    Long.parseLong(LOCAL_RESPONSE_CACHE_TTL_IN_SECONDS)))
             .build();
 
-    private static final ReminderService reminderService = new ReminderService();
-    private static final MemoryService memoryService = new MemoryService();
-    private static final UserService userService = new UserService();
+    private static final Lazy<ReminderService> reminderService = Lazy.of("reminder service",
+            ReminderService::new);
+    private static final MemoryService memoryService = new MemoryService(agentMemoryClient);
+    private static final UserService userService = new UserService(agentMemoryClient);
     private static final ChatAssistantService chatAssistantService =
             new ChatAssistantService(
-                    chatModel, scoringModel, memoryService, langCacheService,
+                    chatModel,
+                    (segments, query) -> scoringModel.get().scoreAll(segments, query),
+                    memoryService, langCacheService, workingMemoryStore,
                     List.of(
                             new DateTimeTool(),
-                            new AgentMemoryServerTool(),
+                            new AgentMemoryServerTool(agentMemoryClient),
                             new UserMemoryTool(memoryService))
             );
 
+    static {
+        // Cached answers may rest on what the user told before
+        memoryService.addUserMemoryListener(langCacheService::invalidateUser);
+
+        // Last chance for queued cache writes when the execution environment shuts
+        // down. Lambda only sends SIGTERM to the runtime when an extension is
+        // registered, and none is, so this rarely runs. Writes still queued when
+        // the environment is reclaimed are lost.
+        Runtime.getRuntime().addShutdownHook(new Thread(
+                () -> langCacheService.flush(CACHE_WRITE_FLUSH_TIMEOUT)));
+    }
+
     public MyJarvisStreamHandler() {
         super(getSkill());
+        Core.getGlobalContext().register(this);
+    }
+
+    // With SnapStart, the snapshot is taken after this runs, so everything
+    // loaded and initialized here is already in place on every restore
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) throws Exception {
+        logger.info("Priming function before checkpoint");
+
+        chatAssistantService.warmUp();
+        scoringModel.get();
+        primeSerialization();
+
+        // Runs the full dispatch path (envelope parsing, interceptors, handler
+        // and response serialization) with a request that needs no remote calls
+        try (InputStream primingRequest = getClass().getResourceAsStream(PRIMING_REQUEST)) {
+            handleRequest(primingRequest, OutputStream.nullOutputStream(), null);
+        }
+
+        // Nothing in flight should end up in the snapshot
+        langCacheService.flush(Duration.ofSeconds(5));
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) {
+        logger.info("Restoring function from checkpoint");
+
+        // Connections captured in the snapshot are stale after a restore
+        HttpClients.reset();
+
+        // The API key is held by the service, so pick up the current value
+        Optional.ofNullable(System.getenv("REDIS_LANGCACHE_API_KEY"))
+                .filter(apiKey -> !apiKey.isEmpty())
+                .ifPresent(langCacheService::setApiKey);
+    }
+
+    private static void primeSerialization() throws IOException {
+        var objectMapper = HttpClients.objectMapper();
+        var sample = objectMapper.writeValueAsBytes(Map.of(
+                "messages", List.of(Map.of("role", "user", "content", "priming")),
+                "memories", List.of(Map.of("text", "priming"))));
+
+        objectMapper.readTree(sample);
+        JsonStreamReader.readArray(new ByteArrayInputStream(sample), "memories",
+                Set.of("text"), fields -> Optional.ofNullable(fields.get("text")), 1);
     }
 
     private static Skill getSkill() {
@@ -81,8 +179,7 @@ public class MyJarvisStreamHandler extends SkillStreamHandler {
                         new UserIntroIntentHandler(userService, chatAssistantService),
                         new RememberIntentHandler(chatAssistantService),
                         new ConversationIntentHandler(chatAssistantService),
-                        new AgentMemoryServerIntentHandler(chatAssistantService),
-                        new KnowledgeBaseIntentHandler(documentParser, documentSplitter, memoryService)
+                        new AgentMemoryServerIntentHandler(chatAssistantService)
                 )
                 .build();
     }
@@ -0,0 +1,292 @@
+package io.redis.devrel.demos.myjarvis.clients;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+public class AgentMemoryClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(AgentMemoryClient.class);
+    private static final ObjectMapper objectMapper = HttpClients.objectMapper();
+
+    private static final String WORKING_MEMORY_PATH = "/v1/working-memory/";
+    private static final String LONG_TERM_MEMORY_PATH = "/v1/long-term-memory/";
+    private static final String LONG_TERM_MEMORY_SEARCH_PATH = "/v1/long-term-memory/search";
+    private static final String HEALTH_PATH = "/v1/health";
+
+    private final String baseUrl;
+    private Duration workingMemoryReadTimeout = Duration.ofSeconds(2);
+    private Duration workingMemoryWriteTimeout = Duration.ofSeconds(3);
+    private Duration longTermMemoryWriteTimeout = Duration.ofSeconds(5);
+    private Duration searchTimeout = Duration.ofSeconds(3);
+    private Duration healthTimeout = Duration.ofSeconds(2);
+
+    public AgentMemoryClient(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    // Read paths return the body as a stream so callers can decode it incrementally
+
+    public HttpResponse<InputStream> getWorkingMemory(Object sessionId, String namespace, int contextWindowMax)
+            throws IOException, InterruptedException {
+        return send(getWorkingMemoryRequest(sessionId, namespace, contextWindowMax), BodyHandlers.ofInputStream());
+    }
+
+    public CompletableFuture<HttpResponse<InputStream>> getWorkingMemoryAsync(Object sessionId,
+                                                                             String namespace,
+                                                                             int contextWindowMax) {
+        return sendAsync(getWorkingMemoryRequest(sessionId, namespace, contextWindowMax),
+                BodyHandlers.ofInputStream());
+    }
+
+    public HttpResponse<String> putWorkingMemory(Object sessionId, int contextWindowMax, Object body)
+            throws IOException, InterruptedException {
+        var request = jsonRequest(
+                URI.create(baseUrl + WORKING_MEMORY_PATH + sessionId + "?context_window_max=" + contextWindowMax),
+                workingMemoryWriteTimeout)
+                .PUT(jsonBody(body))
+                .build();
+
+        return send(request);
+    }
+
+    public HttpResponse<String> deleteWorkingMemory(Object sessionId, String namespace)
+            throws IOException, InterruptedException {
+        var request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + WORKING_MEMORY_PATH + sessionId + "?namespace=" + namespace))
+                .timeout(workingMemoryWriteTimeout)
+                .DELETE()
+                .build();
+
+        return send(request);
+    }
+
+    public HttpResponse<String> createLongTermMemories(Object body)
+            throws IOException, InterruptedException {
+        return send(createLongTermMemoriesRequest(body));
+    }
+
+    public CompletableFuture<HttpResponse<String>> createLongTermMemoriesAsync(Object body) {
+        try {
+            return sendAsync(createLongTermMemoriesRequest(body));
+        } catch (IOException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    public HttpResponse<InputStream> searchLongTermMemory(Object body)
+            throws IOException, InterruptedException {
+        return send(searchLongTermMemoryRequest(body, Optional.empty()), BodyHandlers.ofInputStream());
+    }
+
+    public HttpResponse<InputStream> searchLongTermMemory(Object body, boolean optimizeQuery)
+            throws IOException, InterruptedException {
+        return send(searchLongTermMemoryRequest(body, Optional.of(optimizeQuery)), BodyHandlers.ofInputStream());
+    }
+
+    public CompletableFuture<HttpResponse<InputStream>> searchLongTermMemoryAsync(Object body) {
+        return searchLongTermMemoryAsync(body, Optional.empty());
+    }
+
+    public CompletableFuture<HttpResponse<InputStream>> searchLongTermMemoryAsync(Object body,
+                                                                                 boolean optimizeQuery) {
+        return searchLongTermMemoryAsync(body, Optional.of(optimizeQuery));
+    }
+
+    public HttpResponse<String> health() throws IOException, InterruptedException {
+        var request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + HEALTH_PATH))
+                .timeout(healthTimeout)
+                .GET()
+                .build();
+
+        return send(request);
+    }
+
+    private CompletableFuture<HttpResponse<InputStream>> searchLongTermMemoryAsync(Object body,
+                                                                                  Optional<Boolean> optimizeQuery) {
+        try {
+            return sendAsync(searchLongTermMemoryRequest(body, optimizeQuery), BodyHandlers.ofInputStream());
+        } catch (IOException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    private HttpRequest getWorkingMemoryRequest(Object sessionId, String namespace, int contextWindowMax) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + WORKING_MEMORY_PATH + sessionId +
+                        "?namespace=" + namespace + "&context_window_max=" + contextWindowMax))
+                .timeout(workingMemoryReadTimeout)
+                .GET()
+                .build();
+    }
+
+    private HttpRequest createLongTermMemoriesRequest(Object body) throws IOException {
+        return jsonRequest(URI.create(baseUrl + LONG_TERM_MEMORY_PATH), longTermMemoryWriteTimeout)
+                .POST(jsonBody(body))
+                .build();
+    }
+
+    private HttpRequest searchLongTermMemoryRequest(Object body, Optional<Boolean> optimizeQuery)
+            throws IOException {
+        var query = optimizeQuery.map(value -> "?optimize_query=" + value).orElse("");
+        return jsonRequest(URI.create(baseUrl + LONG_TERM_MEMORY_SEARCH_PATH + query), searchTimeout)
+                .POST(jsonBody(body))
+                .build();
+    }
+
+    private HttpRequest.Builder jsonRequest(URI uri, Duration timeout) {
+        return HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(timeout)
+                .header("Content-Type", "application/json");
+    }
+
+    private HttpRequest.BodyPublisher jsonBody(Object body) throws IOException {
+        if (body instanceof JsonBody jsonBody) {
+            return HttpRequest.BodyPublishers.ofByteArray(jsonBody.toBytes());
+        }
+        return HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body));
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return send(request, BodyHandlers.ofString());
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        logger.debug("Executing request: {}", request);
+        var response = HttpClients.httpClient().send(request, bodyHandler);
+        logger.debug("Request {} finished with status {}", request.uri().getPath(), response.statusCode());
+        return response;
+    }
+
+    private CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request) {
+        return sendAsync(request, BodyHandlers.ofString());
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+                                                            HttpResponse.BodyHandler<T> bodyHandler) {
+        logger.debug("Executing async request: {}", request);
+        return HttpClients.httpClient()
+                .sendAsync(request, bodyHandler)
+                .whenComplete((response, ex) -> {
+                    if (response != null) {
+                        logger.debug("Request {} finished with status {}",
+                                request.uri().getPath(), response.statusCode());
+                    }
+                });
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public Duration getWorkingMemoryReadTimeout() {
+        return workingMemoryReadTimeout;
+    }
+
+    public void setWorkingMemoryReadTimeout(Duration workingMemoryReadTimeout) {
+        this.workingMemoryReadTimeout = workingMemoryReadTimeout;
+    }
+
+    public Duration getWorkingMemoryWriteTimeout() {
+        return workingMemoryWriteTimeout;
+    }
+
+    public void setWorkingMemoryWriteTimeout(Duration workingMemoryWriteTimeout) {
+        this.workingMemoryWriteTimeout = workingMemoryWriteTimeout;
+    }
+
+    public Duration getLongTermMemoryWriteTimeout() {
+        return longTermMemoryWriteTimeout;
+    }
+
+    public void setLongTermMemoryWriteTimeout(Duration longTermMemoryWriteTimeout) {
+        this.longTermMemoryWriteTimeout = longTermMemoryWriteTimeout;
+    }
+
+    public Duration getSearchTimeout() {
+        return searchTimeout;
+    }
+
+    public void setSearchTimeout(Duration searchTimeout) {
+        this.searchTimeout = searchTimeout;
+    }
+
+    public Duration getHealthTimeout() {
+        return healthTimeout;
+    }
+
+    public void setHealthTimeout(Duration healthTimeout) {
+        this.healthTimeout = healthTimeout;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private String baseUrl;
+        private Optional<Duration> workingMemoryReadTimeout = Optional.empty();
+        private Optional<Duration> workingMemoryWriteTimeout = Optional.empty();
+        private Optional<Duration> longTermMemoryWriteTimeout = Optional.empty();
+        private Optional<Duration> searchTimeout = Optional.empty();
+        private Optional<Duration> healthTimeout = Optional.empty();
+
+        public Builder baseUrl(String baseUrl) {
+            this.baseUrl = baseUrl;
+            return this;
+        }
+
+        public Builder workingMemoryReadTimeout(Duration value) {
+            this.workingMemoryReadTimeout = Optional.of(value);
+            return this;
+        }
+
+        public Builder workingMemoryWriteTimeout(Duration value) {
+            this.workingMemoryWriteTimeout = Optional.of(value);
+            return this;
+        }
+
+        public Builder longTermMemoryWriteTimeout(Duration value) {
+            this.longTermMemoryWriteTimeout = Optional.of(value);
+            return this;
+        }
+
+        public Builder searchTimeout(Duration value) {
+            this.searchTimeout = Optional.of(value);
+            return this;
+        }
+
+        public Builder healthTimeout(Duration value) {
+            this.healthTimeout = Optional.of(value);
+            return this;
+        }
+
+        public AgentMemoryClient build() {
+            if (baseUrl == null) {
+                throw new IllegalArgumentException("baseUrl is required");
+            }
+
+            AgentMemoryClient agentMemoryClient = new AgentMemoryClient(baseUrl);
+            workingMemoryReadTimeout.ifPresent(agentMemoryClient::setWorkingMemoryReadTimeout);
+            workingMemoryWriteTimeout.ifPresent(agentMemoryClient::setWorkingMemoryWriteTimeout);
+            longTermMemoryWriteTimeout.ifPresent(agentMemoryClient::setLongTermMemoryWriteTimeout);
+            searchTimeout.ifPresent(agentMemoryClient::setSearchTimeout);
+            healthTimeout.ifPresent(agentMemoryClient::setHealthTimeout);
+
+            return agentMemoryClient;
+        }
+    }
+}
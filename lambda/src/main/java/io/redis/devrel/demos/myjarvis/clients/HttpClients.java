@@ -0,0 +1,54 @@
+package io.redis.devrel.demos.myjarvis.clients;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+public final class HttpClients {
+
+    // Idle connections are kept slightly below the default ALB idle timeout
+    // (60s) so the pool never hands out a socket the load balancer already closed.
+    private static final String KEEP_ALIVE_TIMEOUT_PROPERTY = "jdk.httpclient.keepalive.timeout";
+    private static final String KEEP_ALIVE_TIMEOUT_IN_SECONDS = "55";
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(2);
+
+    private static final ObjectMapper objectMapper = createObjectMapper();
+    private static volatile HttpClient httpClient = createHttpClient();
+
+    private HttpClients() {
+    }
+
+    public static HttpClient httpClient() {
+        return httpClient;
+    }
+
+    public static ObjectMapper objectMapper() {
+        return objectMapper;
+    }
+
+    // Replaces the shared client, e.g. after a snapshot restore, where the
+    // pooled connections captured in the snapshot are no longer usable
+    public static synchronized void reset() {
+        HttpClient previous = httpClient;
+        httpClient = createHttpClient();
+        previous.shutdownNow();
+    }
+
+    private static HttpClient createHttpClient() {
+        if (System.getProperty(KEEP_ALIVE_TIMEOUT_PROPERTY) == null) {
+            System.setProperty(KEEP_ALIVE_TIMEOUT_PROPERTY, KEEP_ALIVE_TIMEOUT_IN_SECONDS);
+        }
+
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+    }
+
+    private static ObjectMapper createObjectMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.findAndRegisterModules();
+        return mapper;
+    }
+}
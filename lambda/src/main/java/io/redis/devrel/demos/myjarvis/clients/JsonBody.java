@@ -0,0 +1,12 @@
+package io.redis.devrel.demos.myjarvis.clients;
+
+// Request payloads that know how to write themselves, so hot request paths
+// don't go through reflective serialization of nested maps
+public interface JsonBody {
+
+    void writeTo(JsonBodyWriter writer);
+
+    default byte[] toBytes() {
+        return JsonBodyWriter.encode(this);
+    }
+}
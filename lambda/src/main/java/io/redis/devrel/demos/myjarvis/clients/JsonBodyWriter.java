@@ -0,0 +1,65 @@
+package io.redis.devrel.demos.myjarvis.clients;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+public final class JsonBodyWriter {
+
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+    private static final JsonStringEncoder stringEncoder = JsonStringEncoder.getInstance();
+    private static final ThreadLocal<JsonBodyWriter> writers = ThreadLocal.withInitial(JsonBodyWriter::new);
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+
+    private JsonBodyWriter() {
+    }
+
+    // The buffer is reused per thread; only the final copy handed to the
+    // request publisher is allocated for each request
+    public static byte[] encode(JsonBody body) {
+        JsonBodyWriter writer = writers.get();
+        writer.buffer.reset();
+        body.writeTo(writer);
+        return writer.buffer.toByteArray();
+    }
+
+    // Encodes a constant JSON fragment once, to be written as-is later on
+    public static byte[] fragment(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public JsonBodyWriter raw(byte[] fragment) {
+        buffer.writeBytes(fragment);
+        return this;
+    }
+
+    public JsonBodyWriter string(String value) {
+        if (value == null) {
+            buffer.writeBytes(NULL);
+            return this;
+        }
+
+        buffer.write('"');
+        buffer.writeBytes(stringEncoder.quoteAsUTF8(value));
+        buffer.write('"');
+        return this;
+    }
+
+    public JsonBodyWriter number(long value) {
+        return ascii(Long.toString(value));
+    }
+
+    public JsonBodyWriter number(double value) {
+        return ascii(Double.toString(value));
+    }
+
+    private JsonBodyWriter ascii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            buffer.write(value.charAt(i));
+        }
+        return this;
+    }
+}
@@ -0,0 +1,83 @@
+package io.redis.devrel.demos.myjarvis.clients;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.function.Function;
+
+public final class JsonStreamReader {
+
+    private static final JsonFactory jsonFactory = HttpClients.objectMapper().getFactory();
+
+    private JsonStreamReader() {
+    }
+
+    // Reads the objects of the top-level array field, keeping only the requested
+    // scalar fields of each one. No tree is built, and once the limit is reached
+    // the remaining bytes are drained unparsed so the connection can be reused.
+    public static <T> List<T> readArray(InputStream inputStream,
+                                        String arrayField,
+                                        Set<String> fields,
+                                        Function<Map<String, String>, Optional<T>> mapper,
+                                        int limit) throws IOException {
+        List<T> items = new ArrayList<>();
+
+        try (inputStream) {
+            JsonParser parser = jsonFactory.createParser(inputStream);
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return items;
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var name = parser.currentName();
+                var token = parser.nextToken();
+
+                if (!arrayField.equals(name) || token != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+
+                while (items.size() < limit && parser.nextToken() == JsonToken.START_OBJECT) {
+                    mapper.apply(readFields(parser, fields)).ifPresent(items::add);
+                }
+                break;
+            }
+
+            inputStream.transferTo(OutputStream.nullOutputStream());
+        }
+
+        return items;
+    }
+
+    public static void discard(InputStream inputStream) {
+        try (inputStream) {
+            inputStream.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException ignored) {
+            // Nothing to recover, the connection is simply not reused
+        }
+    }
+
+    private static Map<String, String> readFields(JsonParser parser, Set<String> fields) throws IOException {
+        Map<String, String> values = new HashMap<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var name = parser.currentName();
+            var token = parser.nextToken();
+
+            if (fields.contains(name) && token.isScalarValue()) {
+                values.put(name, parser.getValueAsString());
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,75 @@
+package io.redis.devrel.demos.myjarvis.extensions;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.transformer.QueryTransformer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.redis.devrel.demos.myjarvis.helpers.TextHelper.tokenize;
+
+public class ConditionalQueryTransformer implements QueryTransformer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConditionalQueryTransformer.class);
+
+    // Words that usually point back to something said earlier in the conversation.
+    // A query without any of them can be answered without the previous turns.
+    private static final Set<String> REFERENCE_WORDS = Set.of(
+            "it", "its", "it's", "that", "this", "these", "those", "they", "them", "their",
+            "he", "him", "his", "she", "her", "there", "then", "one", "ones", "same",
+            "again", "also", "too", "else", "more", "another", "other", "previous", "last", "above"
+    );
+
+    private final QueryTransformer delegate;
+    private final AtomicLong transformed = new AtomicLong();
+    private final AtomicLong skippedWithoutHistory = new AtomicLong();
+    private final AtomicLong skippedSelfContained = new AtomicLong();
+
+    public ConditionalQueryTransformer(QueryTransformer delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Collection<Query> transform(Query query) {
+        if (!hasConversationHistory(query)) {
+            logger.debug("Skipping query transformation, no prior conversation ({} so far)",
+                    skippedWithoutHistory.incrementAndGet());
+            return List.of(query);
+        }
+
+        if (isSelfContained(query.text())) {
+            logger.debug("Skipping query transformation, query is self-contained ({} so far)",
+                    skippedSelfContained.incrementAndGet());
+            return List.of(query);
+        }
+
+        logger.debug("Transforming query with prior conversation ({} so far)",
+                transformed.incrementAndGet());
+        return delegate.transform(query);
+    }
+
+    private boolean hasConversationHistory(Query query) {
+        if (query.metadata() == null || query.metadata().chatMemory() == null) {
+            return false;
+        }
+
+        // System messages are always present and are not part of the conversation
+        for (ChatMessage message : query.metadata().chatMemory()) {
+            if (message instanceof UserMessage || message instanceof AiMessage) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Also used to decide whether an answer depends on the conversation it was given in
+    public static boolean isSelfContained(String text) {
+        return Arrays.stream(tokenize(text))
+                .noneMatch(REFERENCE_WORDS::contains);
+    }
+}
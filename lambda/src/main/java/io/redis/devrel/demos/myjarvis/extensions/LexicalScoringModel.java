@@ -0,0 +1,27 @@
+package io.redis.devrel.demos.myjarvis.extensions;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.scoring.ScoringModel;
+
+import java.util.List;
+
+import static io.redis.devrel.demos.myjarvis.helpers.TextHelper.cosineSimilarity;
+import static io.redis.devrel.demos.myjarvis.helpers.TextHelper.termFrequencies;
+
+public class LexicalScoringModel implements ScoringModel {
+
+    // Ranks segments by the cosine similarity of their term vectors against the
+    // query. Less precise than a cross-encoder, but it needs no network call.
+    // Scores are on a different scale than Cohere's, hence its own min score.
+    @Override
+    public Response<List<Double>> scoreAll(List<TextSegment> segments, String query) {
+        var queryTerms = termFrequencies(query);
+
+        var scores = segments.stream()
+                .map(segment -> cosineSimilarity(queryTerms, termFrequencies(segment.text())))
+                .toList();
+
+        return Response.from(scores);
+    }
+}
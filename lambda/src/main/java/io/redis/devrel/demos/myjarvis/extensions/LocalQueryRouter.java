@@ -0,0 +1,125 @@
+package io.redis.devrel.demos.myjarvis.extensions;
+
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.router.QueryRouter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static io.redis.devrel.demos.myjarvis.helpers.TextHelper.cosineSimilarity;
+import static io.redis.devrel.demos.myjarvis.helpers.TextHelper.termFrequencies;
+
+public class LocalQueryRouter implements QueryRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalQueryRouter.class);
+
+    private static final double KEYWORD_WEIGHT = 0.7;
+    private static final double SIMILARITY_WEIGHT = 0.3;
+    private static final int KEYWORD_SATURATION = 2;
+
+    private final List<Route> routes;
+    private final QueryRouter fallbackRouter;
+    private double minConfidence = 0.2;
+
+    public LocalQueryRouter(List<Route> routes, QueryRouter fallbackRouter) {
+        this.routes = routes;
+        this.fallbackRouter = fallbackRouter;
+    }
+
+    @Override
+    public Collection<ContentRetriever> route(Query query) {
+        var queryTerms = termFrequencies(query.text());
+
+        var scores = routes.stream()
+                .collect(Collectors.toMap(Function.identity(), route -> route.score(queryTerms)));
+
+        var ranked = scores.entrySet().stream()
+                .sorted(Map.Entry.<Route, Double>comparingByValue().reversed())
+                .toList();
+
+        var best = ranked.getFirst();
+        var runnerUp = ranked.size() > 1 ? ranked.get(1).getValue() : 0.0;
+        var confidence = best.getValue() - runnerUp;
+
+        if (confidence >= minConfidence) {
+            logger.debug("Routed query locally with confidence {}: {}", confidence, best.getKey().description());
+            return List.of(best.getKey().retriever());
+        }
+
+        logger.debug("Local routing confidence {} below {}, delegating to fallback router",
+                confidence, minConfidence);
+        return fallbackRouter.route(query);
+    }
+
+    public record Route(ContentRetriever retriever,
+                        String description,
+                        Set<String> keywords,
+                        Map<String, Integer> descriptionTerms) {
+
+        public Route(ContentRetriever retriever, String description, Set<String> keywords) {
+            this(retriever, description, keywords, termFrequencies(description));
+        }
+
+        double score(Map<String, Integer> queryTerms) {
+            var keywordHits = queryTerms.keySet().stream()
+                    .filter(keywords::contains)
+                    .count();
+
+            var keywordScore = Math.min(1.0, (double) keywordHits / KEYWORD_SATURATION);
+            var similarityScore = cosineSimilarity(queryTerms, descriptionTerms);
+
+            return KEYWORD_WEIGHT * keywordScore + SIMILARITY_WEIGHT * similarityScore;
+        }
+    }
+
+    public double getMinConfidence() {
+        return minConfidence;
+    }
+
+    public void setMinConfidence(double minConfidence) {
+        this.minConfidence = minConfidence;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private final List<Route> routes = new ArrayList<>();
+        private QueryRouter fallbackRouter;
+        private Optional<Double> minConfidence = Optional.empty();
+
+        public Builder route(ContentRetriever retriever, String description, Set<String> keywords) {
+            this.routes.add(new Route(retriever, description, keywords));
+            return this;
+        }
+
+        public Builder fallbackRouter(QueryRouter fallbackRouter) {
+            this.fallbackRouter = fallbackRouter;
+            return this;
+        }
+
+        public Builder minConfidence(double minConfidence) {
+            this.minConfidence = Optional.of(minConfidence);
+            return this;
+        }
+
+        public LocalQueryRouter build() {
+            if (routes.isEmpty()) {
+                throw new IllegalStateException("At least one route is required");
+            }
+            if (fallbackRouter == null) {
+                throw new IllegalStateException("fallbackRouter is required");
+            }
+
+            LocalQueryRouter router = new LocalQueryRouter(List.copyOf(routes), fallbackRouter);
+            minConfidence.ifPresent(router::setMinConfidence);
+
+            return router;
+        }
+    }
+}
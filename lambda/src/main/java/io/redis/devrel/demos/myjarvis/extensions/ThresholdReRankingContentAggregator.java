@@ -0,0 +1,45 @@
+package io.redis.devrel.demos.myjarvis.extensions;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.aggregator.ContentAggregator;
+import dev.langchain4j.rag.content.aggregator.DefaultContentAggregator;
+import dev.langchain4j.rag.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public class ThresholdReRankingContentAggregator implements ContentAggregator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThresholdReRankingContentAggregator.class);
+
+    private final ContentAggregator reRankingAggregator;
+    private final ContentAggregator defaultAggregator = new DefaultContentAggregator();
+    private final int threshold;
+
+    public ThresholdReRankingContentAggregator(ContentAggregator reRankingAggregator, int threshold) {
+        this.reRankingAggregator = reRankingAggregator;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public List<Content> aggregate(Map<Query, Collection<List<Content>>> queryToContents) {
+        var candidates = queryToContents.values().stream()
+                .flatMap(Collection::stream)
+                .flatMap(List::stream)
+                .map(content -> content.textSegment().text())
+                .distinct()
+                .count();
+
+        // With only a handful of candidates the ranking barely matters,
+        // so they are fused without paying for a scoring call
+        if (candidates <= threshold) {
+            logger.debug("Skipping re-ranking for {} candidate(s)", candidates);
+            return defaultAggregator.aggregate(queryToContents);
+        }
+
+        return reRankingAggregator.aggregate(queryToContents);
+    }
+}
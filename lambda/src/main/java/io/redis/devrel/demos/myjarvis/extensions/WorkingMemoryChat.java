@@ -2,28 +2,45 @@ package io.redis.devrel.demos.myjarvis.extensions;
 
 import dev.langchain4j.data.message.*;
 import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.TokenCountEstimator;
 import dev.langchain4j.store.memory.chat.ChatMemoryStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+
+import static io.redis.devrel.demos.myjarvis.helpers.MessageHelper.messageContent;
 
 public class WorkingMemoryChat implements ChatMemory {
 
     private static final Logger logger = LoggerFactory.getLogger(WorkingMemoryChat.class);
+    private static final String SUMMARY_PREFIX = "Summary of the earlier conversation: ";
 
     private final String id;
     private final ChatMemoryStore chatMemoryStore;
     private final List<ChatMessage> messages;
+    private boolean bufferedWrites = false;
+    private boolean dirty = false;
+    private TokenCountEstimator tokenCountEstimator;
+    private int maxPromptTokens = 0;
+    private boolean rollingSummary = false;
+    private int maxSummaryTokens = 200;
 
     public WorkingMemoryChat(String id,
                              ChatMemoryStore chatMemoryStore) {
+        this(id, chatMemoryStore, chatMemoryStore.getMessages(id));
+    }
+
+    public WorkingMemoryChat(String id,
+                             ChatMemoryStore chatMemoryStore,
+                             List<ChatMessage> existingMessages) {
         this.id = id;
         this.chatMemoryStore = chatMemoryStore;
 
-        // Load existing messages
-        this.messages = new ArrayList<>(chatMemoryStore.getMessages(id));
+        // Existing messages are either prefetched by the caller or loaded from the store
+        this.messages = new ArrayList<>(existingMessages);
         logger.debug("Initialized WorkingMemoryChat for session {} with {} messages",
                 id, this.messages.size());
     }
@@ -36,20 +53,168 @@ public class WorkingMemoryChat implements ChatMemory {
     @Override
     public void add(ChatMessage message) {
         messages.add(message);
-        chatMemoryStore.updateMessages(id, messages);
+
+        // In buffered mode all the messages of one request are persisted
+        // together by flush(), instead of rewriting the history per message
+        if (bufferedWrites) {
+            dirty = true;
+        } else {
+            chatMemoryStore.updateMessages(id, messages);
+        }
+    }
+
+    public void flush() {
+        if (dirty) {
+            logger.debug("Flushing {} messages of session {}", messages.size(), id);
+            chatMemoryStore.updateMessages(id, messages);
+            dirty = false;
+        }
     }
 
     @Override
     public List<ChatMessage> messages() {
-        return messages;
+        if (tokenCountEstimator == null || maxPromptTokens <= 0) {
+            return messages;
+        }
+        return windowedMessages();
+    }
+
+    // Keeps the system messages and as many of the most recent messages as fit
+    // into the prompt token budget. The full history is still what gets persisted.
+    private List<ChatMessage> windowedMessages() {
+        List<ChatMessage> systemMessages = new ArrayList<>();
+        List<ChatMessage> conversation = new ArrayList<>();
+        for (ChatMessage message : messages) {
+            if (message instanceof SystemMessage) {
+                systemMessages.add(message);
+            } else {
+                conversation.add(message);
+            }
+        }
+
+        int budget = maxPromptTokens - tokenCountEstimator.estimateTokenCountInMessages(systemMessages);
+        if (rollingSummary) {
+            budget -= maxSummaryTokens;
+        }
+
+        // Walk back from the latest message, which is always kept
+        int start = conversation.size();
+        while (start > 0) {
+            int tokens = tokenCountEstimator.estimateTokenCountInMessage(conversation.get(start - 1));
+            if (budget - tokens < 0 && start < conversation.size()) {
+                break;
+            }
+            budget -= tokens;
+            start--;
+        }
+
+        // Tool results cannot be sent without the request that produced them.
+        // Results cut off from their request are dropped, unless they end the
+        // conversation: then the model still has to answer them, so the window
+        // reaches back to the request, even past the budget.
+        int next = start;
+        while (next < conversation.size() && conversation.get(next) instanceof ToolExecutionResultMessage) {
+            next++;
+        }
+        if (next < conversation.size()) {
+            start = next;
+        } else {
+            while (start > 0 && !(conversation.get(start) instanceof AiMessage aiMessage
+                    && aiMessage.hasToolExecutionRequests())) {
+                start--;
+            }
+        }
+
+        if (start == 0) {
+            return messages;
+        }
+
+        logger.debug("Trimmed {} of {} messages of session {} to fit {} prompt tokens",
+                start, conversation.size(), id, maxPromptTokens);
+
+        List<ChatMessage> window = new ArrayList<>(systemMessages);
+        if (rollingSummary) {
+            summarize(conversation.subList(0, start)).ifPresent(window::add);
+        }
+        window.addAll(conversation.subList(start, conversation.size()));
+
+        return window;
+    }
+
+    // Extractive summary of the evicted turns: the user's own words, newest first,
+    // until the summary budget is used up. No model call is made for it.
+    private Optional<ChatMessage> summarize(List<ChatMessage> evicted) {
+        List<String> fragments = new ArrayList<>();
+        int budget = maxSummaryTokens - tokenCountEstimator.estimateTokenCountInText(SUMMARY_PREFIX);
+
+        for (int i = evicted.size() - 1; i >= 0; i--) {
+            if (!(evicted.get(i) instanceof UserMessage userMessage) || !userMessage.hasSingleText()) {
+                continue;
+            }
+
+            var fragment = messageContent(userMessage).strip();
+            int tokens = tokenCountEstimator.estimateTokenCountInText(fragment);
+            if (fragment.isEmpty() || tokens > budget) {
+                continue;
+            }
+
+            fragments.addFirst(fragment);
+            budget -= tokens;
+        }
+
+        if (fragments.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(SystemMessage.from(SUMMARY_PREFIX + String.join(" | ", fragments)));
     }
 
     @Override
     public void clear() {
         messages.clear();
+        dirty = false;
         chatMemoryStore.deleteMessages(id);
     }
 
+    public boolean isBufferedWrites() {
+        return bufferedWrites;
+    }
+
+    public void setBufferedWrites(boolean bufferedWrites) {
+        this.bufferedWrites = bufferedWrites;
+    }
+
+    public TokenCountEstimator getTokenCountEstimator() {
+        return tokenCountEstimator;
+    }
+
+    public void setTokenCountEstimator(TokenCountEstimator tokenCountEstimator) {
+        this.tokenCountEstimator = tokenCountEstimator;
+    }
+
+    public int getMaxPromptTokens() {
+        return maxPromptTokens;
+    }
+
+    public void setMaxPromptTokens(int maxPromptTokens) {
+        this.maxPromptTokens = maxPromptTokens;
+    }
+
+    public boolean isRollingSummary() {
+        return rollingSummary;
+    }
+
+    public void setRollingSummary(boolean rollingSummary) {
+        this.rollingSummary = rollingSummary;
+    }
+
+    public int getMaxSummaryTokens() {
+        return maxSummaryTokens;
+    }
+
+    public void setMaxSummaryTokens(int maxSummaryTokens) {
+        this.maxSummaryTokens = maxSummaryTokens;
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -57,6 +222,12 @@ public class WorkingMemoryChat implements ChatMemory {
     public static class Builder {
         private String id;
         private ChatMemoryStore chatMemoryStore;
+        private List<ChatMessage> existingMessages;
+        private Optional<Boolean> bufferedWrites = Optional.empty();
+        private Optional<TokenCountEstimator> tokenCountEstimator = Optional.empty();
+        private Optional<Integer> maxPromptTokens = Optional.empty();
+        private Optional<Boolean> rollingSummary = Optional.empty();
+        private Optional<Integer> maxSummaryTokens = Optional.empty();
 
         public Builder id(String id) {
             this.id = id;
@@ -68,8 +239,47 @@ public class WorkingMemoryChat implements ChatMemory {
             return this;
         }
 
+        public Builder existingMessages(List<ChatMessage> existingMessages) {
+            this.existingMessages = existingMessages;
+            return this;
+        }
+
+        public Builder bufferedWrites(boolean bufferedWrites) {
+            this.bufferedWrites = Optional.of(bufferedWrites);
+            return this;
+        }
+
+        public Builder tokenCountEstimator(TokenCountEstimator tokenCountEstimator) {
+            this.tokenCountEstimator = Optional.ofNullable(tokenCountEstimator);
+            return this;
+        }
+
+        public Builder maxPromptTokens(int maxPromptTokens) {
+            this.maxPromptTokens = Optional.of(maxPromptTokens);
+            return this;
+        }
+
+        public Builder rollingSummary(boolean rollingSummary) {
+            this.rollingSummary = Optional.of(rollingSummary);
+            return this;
+        }
+
+        public Builder maxSummaryTokens(int maxSummaryTokens) {
+            this.maxSummaryTokens = Optional.of(maxSummaryTokens);
+            return this;
+        }
+
         public WorkingMemoryChat build() {
-            return new WorkingMemoryChat(id, chatMemoryStore);
+            WorkingMemoryChat workingMemoryChat = existingMessages != null
+                    ? new WorkingMemoryChat(id, chatMemoryStore, existingMessages)
+                    : new WorkingMemoryChat(id, chatMemoryStore);
+            bufferedWrites.ifPresent(workingMemoryChat::setBufferedWrites);
+            tokenCountEstimator.ifPresent(workingMemoryChat::setTokenCountEstimator);
+            maxPromptTokens.ifPresent(workingMemoryChat::setMaxPromptTokens);
+            rollingSummary.ifPresent(workingMemoryChat::setRollingSummary);
+            maxSummaryTokens.ifPresent(workingMemoryChat::setMaxSummaryTokens);
+
+            return workingMemoryChat;
         }
     }
 }
@@ -1,19 +1,17 @@
 package io.redis.devrel.demos.myjarvis.extensions;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.langchain4j.data.message.*;
 import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import io.redis.devrel.demos.myjarvis.clients.AgentMemoryClient;
+import io.redis.devrel.demos.myjarvis.clients.JsonStreamReader;
 import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
+import java.io.InputStream;
 import java.net.http.HttpResponse;
-import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static io.redis.devrel.demos.myjarvis.helpers.MessageHelper.determineRole;
@@ -22,12 +20,9 @@ import static io.redis.devrel.demos.myjarvis.helpers.MessageHelper.messageConten
 public class WorkingMemoryStore implements ChatMemoryStore {
 
     private static final Logger logger = LoggerFactory.getLogger(WorkingMemoryStore.class);
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final HttpClient httpClient = HttpClient.newBuilder()
-            .version(HttpClient.Version.HTTP_2)
-            .build();
+    private static final Set<String> MESSAGE_FIELDS = Set.of("role", "content");
 
-    private final String agentMemoryServerUrl;
+    private final AgentMemoryClient agentMemoryClient;
     private long timeToLiveInSeconds = 300;
     private boolean storeSystemMessages = false;
     private boolean storeAiMessages = false;
@@ -35,62 +30,72 @@ public class WorkingMemoryStore implements ChatMemoryStore {
     private String namespace = "short-term-memory";
     private int maxContextWindow = 1000;
 
-    public WorkingMemoryStore(String agentMemoryServerUrl) {
-        this.agentMemoryServerUrl = agentMemoryServerUrl;
+    public WorkingMemoryStore(AgentMemoryClient agentMemoryClient) {
+        this.agentMemoryClient = agentMemoryClient;
     }
 
     @Override
     public List<ChatMessage> getMessages(Object memoryId) {
-        List<ChatMessage> chatMessages = new ArrayList<>();
-        var request = HttpRequest.newBuilder()
-                .uri(URI.create(agentMemoryServerUrl + "/v1/working-memory/" +
-                        memoryId + "?namespace=" + namespace +
-                        "&context_window_max=" + maxContextWindow))
-                .GET()
-                .build();
-
         try {
-            var response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            if (response.statusCode() == HttpStatus.SC_OK) {
-                var messages = objectMapper.readTree(response.body()).path("messages");
-                if (!messages.isEmpty() && !messages.isMissingNode()) {
-                    for (JsonNode messageNode : messages) {
-                        var role = messageNode.path("role").asText("");
-                        var content = messageNode.path("content").asText("");
-
-                        // Skip messages based on configuration
-                        if ((!storeSystemMessages && "system".equalsIgnoreCase(role)) ||
-                                (!storeAiMessages && "ai".equalsIgnoreCase(role)) ||
-                                (!storeToolMessages && "tool".equalsIgnoreCase(role))) {
-                            continue;
-                        }
-
-                        ChatMessage chatMessage = switch (role.toLowerCase()) {
-                            case "user" -> UserMessage.from(content);
-                            case "assistant", "ai" -> AiMessage.from(content);
-                            case "system" -> SystemMessage.from(content);
-                            case "tool" -> null;
-                            default -> {
-                                if (!role.isEmpty()) {
-                                    logger.warn("Unknown message role: {}", role);
-                                }
-                                yield null;
-                            }
-                        };
-
-                        if (chatMessage != null) {
-                            chatMessages.add(chatMessage);
-                        }
-                    }
-
-                    return chatMessages;
-                }
-            }
+            var response = agentMemoryClient.getWorkingMemory(memoryId, namespace, maxContextWindow);
+            return parseMessages(response);
         } catch (Exception ex) {
             logger.error("Error during working-term memory search", ex);
         }
 
-        return chatMessages;
+        return new ArrayList<>();
+    }
+
+    public CompletableFuture<List<ChatMessage>> getMessagesAsync(Object memoryId) {
+        return agentMemoryClient.getWorkingMemoryAsync(memoryId, namespace, maxContextWindow)
+                .thenApply(this::parseMessages)
+                .exceptionally(ex -> {
+                    logger.error("Error during working-term memory search", ex);
+                    return new ArrayList<>();
+                });
+    }
+
+    private List<ChatMessage> parseMessages(HttpResponse<InputStream> response) {
+        if (response.statusCode() != HttpStatus.SC_OK) {
+            JsonStreamReader.discard(response.body());
+            return new ArrayList<>();
+        }
+
+        try {
+            return JsonStreamReader.readArray(response.body(), "messages", MESSAGE_FIELDS,
+                    this::toChatMessage, Integer.MAX_VALUE);
+        } catch (Exception ex) {
+            logger.error("Error parsing working memory response", ex);
+        }
+
+        return new ArrayList<>();
+    }
+
+    private Optional<ChatMessage> toChatMessage(Map<String, String> fields) {
+        var role = fields.getOrDefault("role", "");
+        var content = fields.getOrDefault("content", "");
+
+        // Skip messages based on configuration
+        if ((!storeSystemMessages && "system".equalsIgnoreCase(role)) ||
+                (!storeAiMessages && "ai".equalsIgnoreCase(role)) ||
+                (!storeToolMessages && "tool".equalsIgnoreCase(role))) {
+            return Optional.empty();
+        }
+
+        ChatMessage chatMessage = switch (role.toLowerCase()) {
+            case "user" -> UserMessage.from(content);
+            case "assistant", "ai" -> AiMessage.from(content);
+            case "system" -> SystemMessage.from(content);
+            case "tool" -> null;
+            default -> {
+                if (!role.isEmpty()) {
+                    logger.warn("Unknown message role: {}", role);
+                }
+                yield null;
+            }
+        };
+
+        return Optional.ofNullable(chatMessage);
     }
 
     @Override
@@ -121,17 +126,7 @@ public class WorkingMemoryStore implements ChatMemoryStore {
                     Map.of("strategy", "discrete",
                             "config", Map.of()));
 
-            String jsonPayload = objectMapper.writeValueAsString(requestBody);
-
-            var request = HttpRequest.newBuilder()
-                    .uri(URI.create(agentMemoryServerUrl + "/v1/working-memory/" +
-                            memoryId + "?context_window_max=" + maxContextWindow))
-                    .header("Content-Type", "application/json")
-                    .timeout(Duration.ofSeconds(3))
-                    .PUT(HttpRequest.BodyPublishers.ofString(jsonPayload))
-                    .build();
-
-            httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            agentMemoryClient.putWorkingMemory(memoryId, maxContextWindow, requestBody);
         } catch (Exception ex) {
             logger.error("Error updating working memory for session: {}", memoryId, ex);
         }
@@ -140,14 +135,7 @@ public class WorkingMemoryStore implements ChatMemoryStore {
     @Override
     public void deleteMessages(Object memoryId) {
         try {
-            var request = HttpRequest.newBuilder()
-                    .uri(URI.create(agentMemoryServerUrl + "/v1/working-memory/" +
-                            memoryId + "?namespace=" + namespace))
-                    .DELETE()
-                    .timeout(Duration.ofSeconds(3))
-                    .build();
-
-            var response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            var response = agentMemoryClient.deleteWorkingMemory(memoryId, namespace);
 
             if (response.statusCode() == HttpStatus.SC_OK ||
                     response.statusCode() == HttpStatus.SC_NO_CONTENT ||
@@ -218,7 +206,7 @@ public class WorkingMemoryStore implements ChatMemoryStore {
     }
 
     public static class Builder {
-        private String agentMemoryServerUrl;
+        private AgentMemoryClient agentMemoryClient;
         private Optional<Long> timeToLiveInSeconds = Optional.empty();
         private Optional<Boolean> storeSystemMessages = Optional.empty();
         private Optional<Boolean> storeAiMessages = Optional.empty();
@@ -226,8 +214,8 @@ public class WorkingMemoryStore implements ChatMemoryStore {
         private Optional<String> namespace = Optional.empty();
         private Optional<Integer> maxContextWindow = Optional.empty();
 
-        public Builder agentMemoryServerUrl(String value) {
-            this.agentMemoryServerUrl = value;
+        public Builder agentMemoryClient(AgentMemoryClient value) {
+            this.agentMemoryClient = value;
             return this;
         }
 
@@ -262,11 +250,11 @@ public class WorkingMemoryStore implements ChatMemoryStore {
         }
 
         public WorkingMemoryStore build() {
-            if (agentMemoryServerUrl == null) {
-                throw new IllegalStateException("agentMemoryServerUrl is required");
+            if (agentMemoryClient == null) {
+                throw new IllegalStateException("agentMemoryClient is required");
             }
 
-            WorkingMemoryStore workingMemoryStore = new WorkingMemoryStore(agentMemoryServerUrl);
+            WorkingMemoryStore workingMemoryStore = new WorkingMemoryStore(agentMemoryClient);
             timeToLiveInSeconds.ifPresent(workingMemoryStore::setTimeToLiveInSeconds);
             storeSystemMessages.ifPresent(workingMemoryStore::setStoreSystemMessages);
             storeAiMessages.ifPresent(workingMemoryStore::setStoreAiMessages);
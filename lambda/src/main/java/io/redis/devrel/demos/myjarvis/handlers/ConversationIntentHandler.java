@@ -8,6 +8,7 @@ import com.amazon.ask.request.Predicates;
 import io.redis.devrel.demos.myjarvis.helpers.HandlerHelper;
 import io.redis.devrel.demos.myjarvis.helpers.RequestContext;
 import io.redis.devrel.demos.myjarvis.services.ChatAssistantService;
+import io.redis.devrel.demos.myjarvis.services.ExecutionProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,9 +21,13 @@ public class ConversationIntentHandler implements RequestHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(ConversationIntentHandler.class);
 
+    private static final ExecutionProfile EXECUTION_PROFILE = ExecutionProfile.CONVERSATIONAL;
+
     private final static String SYSTEM_PROMPT = """
-        CRITICAL: Call setUserTimeZone("%s") first, then getCurrentDateTime()
-        
+        CRITICAL: Only when the answer depends on the current date or time (e.g. "today", "tomorrow",
+        "how long until", upcoming events), call setUserTimeZone("%s") first, then getCurrentDateTime().
+        Do not call the date and time tools for any other query.
+
         You are an AI assistant that should act, talk, and behave as if you were J.A.R.V.I.S AI
         from the Iron Man movies. Be formal but friendly, and add personality. You are going to
         be the brains behind an Alexa skill. While providing answers, be informative but maintain
@@ -142,7 +147,9 @@ public class ConversationIntentHandler implements RequestHandler {
                     systemPrompt,
                     requestContext.userId(),
                     requestContext.userName(),
-                    query
+                    query,
+                    CONVERSATION_INTENT,
+                    EXECUTION_PROFILE
             );
 
             if (response == null || response.isBlank()) {
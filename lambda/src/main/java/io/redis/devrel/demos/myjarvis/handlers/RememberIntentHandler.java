@@ -11,6 +11,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import io.redis.devrel.demos.myjarvis.helpers.HandlerHelper;
 import io.redis.devrel.demos.myjarvis.helpers.RequestContext;
 import io.redis.devrel.demos.myjarvis.services.ChatAssistantService;
+import io.redis.devrel.demos.myjarvis.services.ExecutionProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,6 +24,9 @@ import static io.redis.devrel.demos.myjarvis.helpers.HandlerHelper.extractReques
 public class RememberIntentHandler implements RequestHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(RememberIntentHandler.class);
+
+    // The prompt embeds the session and user ids, so it can never hit the cache
+    private static final ExecutionProfile EXECUTION_PROFILE = ExecutionProfile.MEMORY_WRITE;
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
     private final static String SYSTEM_PROMPT = """
@@ -194,7 +198,9 @@ public class RememberIntentHandler implements RequestHandler {
                     systemPrompt,
                     requestContext.userId(),
                     requestContext.userName(),
-                    question
+                    question,
+                    REMEMBER_INTENT,
+                    EXECUTION_PROFILE
             );
 
             logger.info("AI response: {}", response);
@@ -15,6 +15,7 @@ import org.slf4j.LoggerFactory;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 import static io.redis.devrel.demos.myjarvis.helpers.Constants.*;
 import static io.redis.devrel.demos.myjarvis.helpers.HandlerHelper.*;
@@ -24,9 +25,9 @@ public class YesIntentHandler implements RequestHandler {
     private static final Logger logger = LoggerFactory.getLogger(YesIntentHandler.class);
     private static final String REMINDERS_PERMISSION = "alexa::alerts:reminders:skill:readwrite";
 
-    private final ReminderService reminderService;
+    private final Supplier<ReminderService> reminderService;
 
-    public YesIntentHandler(ReminderService reminderService) {
+    public YesIntentHandler(Supplier<ReminderService> reminderService) {
         this.reminderService = reminderService;
     }
 
@@ -105,14 +106,14 @@ public class YesIntentHandler implements RequestHandler {
                                         "For monthly reminders, I'll need to create a one-time reminder instead.");
                     }
 
-                    token = reminderService.createRecurringReminder(
+                    token = reminderService.get().createRecurringReminder(
                             reminderMgmtService, details, timeZone,
                             reminderData.frequency(), reminderData.byDays()
                     );
                     logger.info("Successfully created recurring reminder: {}", token);
                     return buildSuccessResponse(handlerInput);
                 } else {
-                    token = reminderService.createReminder(reminderMgmtService, details, timeZone);
+                    token = reminderService.get().createReminder(reminderMgmtService, details, timeZone);
                     logger.info("Successfully created reminder: {}", token);
                     return buildSuccessResponse(handlerInput);
                 }
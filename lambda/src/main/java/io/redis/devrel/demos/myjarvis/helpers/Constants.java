@@ -10,7 +10,6 @@ public enum Constants {
     public static final String FORGET_INTENT = "ForgetIntent";
     public static final String CONVERSATION_INTENT = "ConversationIntent";
     public static final String AGENT_MEMORY_SERVER_INTENT = "AgentMemoryServerIntent";
-    public static final String KNOWLEDGE_BASE_INTENT = "KnowledgeBaseIntent";
 
     public static final String AMAZON_YES_INTENT = "AMAZON.YesIntent";
     public static final String AMAZON_NO_INTENT = "AMAZON.NoIntent";
@@ -21,6 +20,7 @@ public enum Constants {
 
     public static final String USER_ID_PARAM = "userId";
     public static final String USER_NAME_PARAM = "userName";
+    public static final String TIME_ZONE_PARAM = "timeZone";
     public static final String MEMORY_PARAM = "memory";
     public static final String QUERY_PARAM = "query";
 
@@ -55,4 +55,139 @@ public enum Constants {
             (System.getenv("KNOWLEDGE_BASE_SEARCH_LIMIT") == null ||
                     System.getenv("KNOWLEDGE_BASE_SEARCH_LIMIT").isEmpty())
                     ? String.valueOf(1) : System.getenv("KNOWLEDGE_BASE_SEARCH_LIMIT");
+
+    public static final String SPECULATIVE_PREFETCH_ENABLED =
+            (System.getenv("SPECULATIVE_PREFETCH_ENABLED") == null ||
+                    System.getenv("SPECULATIVE_PREFETCH_ENABLED").isEmpty())
+                    ? String.valueOf(true) : System.getenv("SPECULATIVE_PREFETCH_ENABLED");
+
+    public static final String QUERY_ROUTER_STRATEGY =
+            (System.getenv("QUERY_ROUTER_STRATEGY") == null ||
+                    System.getenv("QUERY_ROUTER_STRATEGY").isEmpty())
+                    ? "local" : System.getenv("QUERY_ROUTER_STRATEGY");
+
+    public static final String QUERY_ROUTER_MIN_CONFIDENCE =
+            (System.getenv("QUERY_ROUTER_MIN_CONFIDENCE") == null ||
+                    System.getenv("QUERY_ROUTER_MIN_CONFIDENCE").isEmpty())
+                    ? String.valueOf(0.2) : System.getenv("QUERY_ROUTER_MIN_CONFIDENCE");
+
+    public static final String RERANKING_STRATEGY =
+            (System.getenv("RERANKING_STRATEGY") == null ||
+                    System.getenv("RERANKING_STRATEGY").isEmpty())
+                    ? "cohere" : System.getenv("RERANKING_STRATEGY");
+
+    public static final String LOCAL_RERANKING_MIN_SCORE =
+            (System.getenv("LOCAL_RERANKING_MIN_SCORE") == null ||
+                    System.getenv("LOCAL_RERANKING_MIN_SCORE").isEmpty())
+                    ? String.valueOf(0.1) : System.getenv("LOCAL_RERANKING_MIN_SCORE");
+
+    public static final String RERANKING_SKIP_THRESHOLD =
+            (System.getenv("RERANKING_SKIP_THRESHOLD") == null ||
+                    System.getenv("RERANKING_SKIP_THRESHOLD").isEmpty())
+                    ? String.valueOf(1) : System.getenv("RERANKING_SKIP_THRESHOLD");
+
+    public static final String WORKING_MEMORY_MAX_PROMPT_TOKENS =
+            (System.getenv("WORKING_MEMORY_MAX_PROMPT_TOKENS") == null ||
+                    System.getenv("WORKING_MEMORY_MAX_PROMPT_TOKENS").isEmpty())
+                    ? String.valueOf(2000) : System.getenv("WORKING_MEMORY_MAX_PROMPT_TOKENS");
+
+    public static final String WORKING_MEMORY_ROLLING_SUMMARY =
+            (System.getenv("WORKING_MEMORY_ROLLING_SUMMARY") == null ||
+                    System.getenv("WORKING_MEMORY_ROLLING_SUMMARY").isEmpty())
+                    ? String.valueOf(false) : System.getenv("WORKING_MEMORY_ROLLING_SUMMARY");
+
+    public static final String KNOWLEDGE_BASE_SYNC_TIME_BUDGET_IN_SECONDS =
+            (System.getenv("KNOWLEDGE_BASE_SYNC_TIME_BUDGET_IN_SECONDS") == null ||
+                    System.getenv("KNOWLEDGE_BASE_SYNC_TIME_BUDGET_IN_SECONDS").isEmpty())
+                    ? String.valueOf(45) : System.getenv("KNOWLEDGE_BASE_SYNC_TIME_BUDGET_IN_SECONDS");
+
+    public static final String KNOWLEDGE_BASE_WRITE_BATCH_SIZE =
+            (System.getenv("KNOWLEDGE_BASE_WRITE_BATCH_SIZE") == null ||
+                    System.getenv("KNOWLEDGE_BASE_WRITE_BATCH_SIZE").isEmpty())
+                    ? String.valueOf(20) : System.getenv("KNOWLEDGE_BASE_WRITE_BATCH_SIZE");
+
+    public static final String KNOWLEDGE_BASE_WRITE_BATCH_MAX_CHARS =
+            (System.getenv("KNOWLEDGE_BASE_WRITE_BATCH_MAX_CHARS") == null ||
+                    System.getenv("KNOWLEDGE_BASE_WRITE_BATCH_MAX_CHARS").isEmpty())
+                    ? String.valueOf(100000) : System.getenv("KNOWLEDGE_BASE_WRITE_BATCH_MAX_CHARS");
+
+    public static final String KNOWLEDGE_BASE_WRITE_MAX_IN_FLIGHT =
+            (System.getenv("KNOWLEDGE_BASE_WRITE_MAX_IN_FLIGHT") == null ||
+                    System.getenv("KNOWLEDGE_BASE_WRITE_MAX_IN_FLIGHT").isEmpty())
+                    ? String.valueOf(4) : System.getenv("KNOWLEDGE_BASE_WRITE_MAX_IN_FLIGHT");
+
+    public static final String KNOWLEDGE_BASE_DOWNLOAD_CONCURRENCY =
+            (System.getenv("KNOWLEDGE_BASE_DOWNLOAD_CONCURRENCY") == null ||
+                    System.getenv("KNOWLEDGE_BASE_DOWNLOAD_CONCURRENCY").isEmpty())
+                    ? String.valueOf(4) : System.getenv("KNOWLEDGE_BASE_DOWNLOAD_CONCURRENCY");
+
+    public static final String KNOWLEDGE_BASE_PARSE_THREADS =
+            (System.getenv("KNOWLEDGE_BASE_PARSE_THREADS") == null ||
+                    System.getenv("KNOWLEDGE_BASE_PARSE_THREADS").isEmpty())
+                    ? String.valueOf(Runtime.getRuntime().availableProcessors()) : System.getenv("KNOWLEDGE_BASE_PARSE_THREADS");
+
+    public static final String KNOWLEDGE_BASE_UPLOAD_CONCURRENCY =
+            (System.getenv("KNOWLEDGE_BASE_UPLOAD_CONCURRENCY") == null ||
+                    System.getenv("KNOWLEDGE_BASE_UPLOAD_CONCURRENCY").isEmpty())
+                    ? String.valueOf(2) : System.getenv("KNOWLEDGE_BASE_UPLOAD_CONCURRENCY");
+
+    public static final String KNOWLEDGE_BASE_PIPELINE_QUEUE_CAPACITY =
+            (System.getenv("KNOWLEDGE_BASE_PIPELINE_QUEUE_CAPACITY") == null ||
+                    System.getenv("KNOWLEDGE_BASE_PIPELINE_QUEUE_CAPACITY").isEmpty())
+                    ? String.valueOf(2) : System.getenv("KNOWLEDGE_BASE_PIPELINE_QUEUE_CAPACITY");
+
+    public static final String KNOWLEDGE_BASE_PAGE_STREAMING =
+            (System.getenv("KNOWLEDGE_BASE_PAGE_STREAMING") == null ||
+                    System.getenv("KNOWLEDGE_BASE_PAGE_STREAMING").isEmpty())
+                    ? String.valueOf(true) : System.getenv("KNOWLEDGE_BASE_PAGE_STREAMING");
+
+    public static final String LOCAL_RESPONSE_CACHE_MAX_USERS =
+            (System.getenv("LOCAL_RESPONSE_CACHE_MAX_USERS") == null ||
+                    System.getenv("LOCAL_RESPONSE_CACHE_MAX_USERS").isEmpty())
+                    ? String.valueOf(256) : System.getenv("LOCAL_RESPONSE_CACHE_MAX_USERS");
+
+    public static final String LOCAL_RESPONSE_CACHE_MAX_ENTRIES_PER_USER =
+            (System.getenv("LOCAL_RESPONSE_CACHE_MAX_ENTRIES_PER_USER") == null ||
+                    System.getenv("LOCAL_RESPONSE_CACHE_MAX_ENTRIES_PER_USER").isEmpty())
+                    ? String.valueOf(32) : System.getenv("LOCAL_RESPONSE_CACHE_MAX_ENTRIES_PER_USER");
+
+    public static final String LOCAL_RESPONSE_CACHE_NEAR_DUPLICATES =
+            (System.getenv("LOCAL_RESPONSE_CACHE_NEAR_DUPLICATES") == null ||
+                    System.getenv("LOCAL_RESPONSE_CACHE_NEAR_DUPLICATES").isEmpty())
+                    ? String.valueOf(false) : System.getenv("LOCAL_RESPONSE_CACHE_NEAR_DUPLICATES");
+
+    public static final String LOCAL_RESPONSE_CACHE_MAX_HAMMING_DISTANCE =
+            (System.getenv("LOCAL_RESPONSE_CACHE_MAX_HAMMING_DISTANCE") == null ||
+                    System.getenv("LOCAL_RESPONSE_CACHE_MAX_HAMMING_DISTANCE").isEmpty())
+                    ? String.valueOf(3) : System.getenv("LOCAL_RESPONSE_CACHE_MAX_HAMMING_DISTANCE");
+
+    public static final String LANGCACHE_WRITE_FLUSH_TIMEOUT_IN_MILLIS =
+            (System.getenv("LANGCACHE_WRITE_FLUSH_TIMEOUT_IN_MILLIS") == null ||
+                    System.getenv("LANGCACHE_WRITE_FLUSH_TIMEOUT_IN_MILLIS").isEmpty())
+                    ? String.valueOf(250) : System.getenv("LANGCACHE_WRITE_FLUSH_TIMEOUT_IN_MILLIS");
+
+    public static final String LANGCACHE_TIME_TO_LIVE_IN_SECONDS =
+            (System.getenv("LANGCACHE_TIME_TO_LIVE_IN_SECONDS") == null ||
+                    System.getenv("LANGCACHE_TIME_TO_LIVE_IN_SECONDS").isEmpty())
+                    ? String.valueOf(60) : System.getenv("LANGCACHE_TIME_TO_LIVE_IN_SECONDS");
+
+    public static final String LANGCACHE_SIMILARITY_THRESHOLD =
+            (System.getenv("LANGCACHE_SIMILARITY_THRESHOLD") == null ||
+                    System.getenv("LANGCACHE_SIMILARITY_THRESHOLD").isEmpty())
+                    ? String.valueOf(0.85) : System.getenv("LANGCACHE_SIMILARITY_THRESHOLD");
+
+    public static final String LANGCACHE_INTENT_SIMILARITY_THRESHOLDS =
+            (System.getenv("LANGCACHE_INTENT_SIMILARITY_THRESHOLDS") == null ||
+                    System.getenv("LANGCACHE_INTENT_SIMILARITY_THRESHOLDS").isEmpty())
+                    ? "" : System.getenv("LANGCACHE_INTENT_SIMILARITY_THRESHOLDS");
+
+    public static final String LANGCACHE_UTTERANCE_LOG_ENABLED =
+            (System.getenv("LANGCACHE_UTTERANCE_LOG_ENABLED") == null ||
+                    System.getenv("LANGCACHE_UTTERANCE_LOG_ENABLED").isEmpty())
+                    ? String.valueOf(false) : System.getenv("LANGCACHE_UTTERANCE_LOG_ENABLED");
+
+    public static final String LOCAL_RESPONSE_CACHE_TTL_IN_SECONDS =
+            (System.getenv("LOCAL_RESPONSE_CACHE_TTL_IN_SECONDS") == null ||
+                    System.getenv("LOCAL_RESPONSE_CACHE_TTL_IN_SECONDS").isEmpty())
+                    ? String.valueOf(60) : System.getenv("LOCAL_RESPONSE_CACHE_TTL_IN_SECONDS");
 }
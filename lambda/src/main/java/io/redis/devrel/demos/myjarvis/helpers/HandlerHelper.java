@@ -57,7 +57,8 @@ public class HandlerHelper {
         var requestAttributes = handlerInput.getAttributesManager().getRequestAttributes();
         var userId = (String) requestAttributes.get(USER_ID_PARAM);
         var userName = (String) requestAttributes.get(USER_NAME_PARAM);
-        var timeZone = getUserTimeZone(handlerInput);
+        var timeZone = Optional.ofNullable((String) requestAttributes.get(TIME_ZONE_PARAM))
+                .orElseGet(() -> getUserTimeZone(handlerInput));
 
         return new RequestContext(sessionId, userId, userName, timeZone);
     }
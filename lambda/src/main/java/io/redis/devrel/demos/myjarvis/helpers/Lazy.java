@@ -0,0 +1,46 @@
+package io.redis.devrel.demos.myjarvis.helpers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+// Holds a component that is only created the first time it is needed, so each
+// request pays only for what its intent actually uses. The time it took to
+// create the component is logged.
+public final class Lazy<T> implements Supplier<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(Lazy.class);
+
+    private final String name;
+    private final Supplier<T> factory;
+    private volatile T value;
+
+    private Lazy(String name, Supplier<T> factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    public static <T> Lazy<T> of(String name, Supplier<T> factory) {
+        return new Lazy<>(name, factory);
+    }
+
+    @Override
+    public T get() {
+        T result = value;
+        if (result == null) {
+            synchronized (this) {
+                result = value;
+                if (result == null) {
+                    long start = System.nanoTime();
+                    result = factory.get();
+                    var initializationTime = Duration.ofNanos(System.nanoTime() - start);
+                    value = result;
+                    logger.info("Initialized {} in {} ms", name, initializationTime.toMillis());
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,46 @@
+package io.redis.devrel.demos.myjarvis.helpers;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+public class TextHelper {
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "in", "is",
+            "it", "like", "not", "of", "on", "or", "query", "really", "the", "to", "with"
+    );
+
+    public static String[] tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return new String[0];
+        }
+        return text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}']+");
+    }
+
+    public static Map<String, Integer> termFrequencies(String text) {
+        return Arrays.stream(tokenize(text))
+                .filter(term -> !term.isBlank() && !STOP_WORDS.contains(term))
+                .collect(Collectors.toMap(Function.identity(), term -> 1, Integer::sum));
+    }
+
+    public static double cosineSimilarity(Map<String, Integer> left, Map<String, Integer> right) {
+        if (left.isEmpty() || right.isEmpty()) {
+            return 0.0;
+        }
+
+        double dotProduct = 0.0;
+        for (var entry : left.entrySet()) {
+            dotProduct += entry.getValue() * right.getOrDefault(entry.getKey(), 0);
+        }
+
+        return dotProduct / (norm(left) * norm(right));
+    }
+
+    private static double norm(Map<String, Integer> vector) {
+        return Math.sqrt(vector.values().stream().mapToDouble(value -> value * value).sum());
+    }
+}
@@ -2,5 +2,6 @@ package io.redis.devrel.demos.myjarvis.helpers;
 
 public record UserContext(
         String userId,
-        String userName) {
+        String userName,
+        String timeZone) {
 }
@@ -12,6 +12,7 @@ import org.slf4j.LoggerFactory;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static io.redis.devrel.demos.myjarvis.helpers.Constants.*;
 
@@ -27,7 +28,6 @@ public class UserValidationInterceptor implements RequestInterceptor {
             AMAZON_HELP_INTENT,
             AMAZON_FALLBACK_INTENT,
             AGENT_MEMORY_SERVER_INTENT,
-            KNOWLEDGE_BASE_INTENT,
             USER_INTRO_INTENT
     );
 
@@ -77,11 +77,16 @@ public class UserValidationInterceptor implements RequestInterceptor {
     private UserContext resolveUserContext(HandlerInput input, String userId) {
         logger.debug("Resolving user context for userId: {}", userId);
 
+        // The user lookup and the timezone lookup are independent, so
+        // the timezone is fetched while the user search is in flight
+        var existingUserLookup = getExistingUserAsync(userId);
+        var timeZone = HandlerHelper.getUserTimeZone(input);
+
         // Check if user already exists
-        var existingUser = getExistingUser(userId);
+        var existingUser = awaitExistingUser(existingUserLookup);
         if (existingUser.isPresent()) {
             logger.info("Found existing user: {}", existingUser.get());
-            return new UserContext(userId, existingUser.get());
+            return new UserContext(userId, existingUser.get(), timeZone);
         }
 
         // Try to fetch and create new user
@@ -93,12 +98,21 @@ public class UserValidationInterceptor implements RequestInterceptor {
 
         // Create new user
         createNewUser(userId, userName.get());
-        return new UserContext(userId, userName.get());
+        return new UserContext(userId, userName.get(), timeZone);
+    }
+
+    private CompletableFuture<Optional<String>> getExistingUserAsync(String userId) {
+        try {
+            return userService.getUserNameAsync(userId);
+        } catch (Exception e) {
+            logger.error("Error checking existing user", e);
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
     }
 
-    private Optional<String> getExistingUser(String userId) {
+    private Optional<String> awaitExistingUser(CompletableFuture<Optional<String>> existingUserLookup) {
         try {
-            return userService.getUserName(userId);
+            return existingUserLookup.join();
         } catch (Exception e) {
             logger.error("Error checking existing user", e);
             return Optional.empty();
@@ -186,7 +200,8 @@ public class UserValidationInterceptor implements RequestInterceptor {
             input.getAttributesManager().setRequestAttributes(
                     Map.of(
                             USER_ID_PARAM, context.userId(),
-                            USER_NAME_PARAM, context.userName()
+                            USER_NAME_PARAM, context.userName(),
+                            TIME_ZONE_PARAM, context.timeZone()
                     )
             );
 
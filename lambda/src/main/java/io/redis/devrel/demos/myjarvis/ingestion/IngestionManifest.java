@@ -0,0 +1,96 @@
+package io.redis.devrel.demos.myjarvis.ingestion;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.redis.devrel.demos.myjarvis.clients.HttpClients;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+// Keeps one small sidecar object per ingested file with the ETag that was
+// ingested and how far the ingestion got, so a sync can skip files it has
+// already stored and resume a file that was interrupted by a timeout.
+public class IngestionManifest {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestionManifest.class);
+    private static final ObjectMapper objectMapper = HttpClients.objectMapper();
+
+    private static final String MANIFEST_FOLDER = "manifest/";
+    private static final String MANIFEST_SUFFIX = ".json";
+    private static final String CONTENT_TYPE = "application/json";
+
+    private final Supplier<AmazonS3> s3Client;
+    private final String bucketName;
+
+    public IngestionManifest(Supplier<AmazonS3> s3Client, String bucketName) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+    }
+
+    public Optional<Checkpoint> read(String fileName) {
+        try (var s3Object = s3Client.get().getObject(bucketName, manifestKey(fileName));
+             var inputStream = s3Object.getObjectContent()) {
+            return Optional.of(objectMapper.readValue(inputStream, Checkpoint.class));
+        } catch (AmazonS3Exception ex) {
+            if (ex.getStatusCode() != HttpStatus.SC_NOT_FOUND) {
+                logger.warn("Could not read manifest entry for {}", fileName, ex);
+            }
+        } catch (Exception ex) {
+            logger.warn("Could not read manifest entry for {}", fileName, ex);
+        }
+
+        return Optional.empty();
+    }
+
+    public void write(String fileName, Checkpoint checkpoint) {
+        try {
+            var content = objectMapper.writeValueAsBytes(checkpoint);
+
+            var metadata = new ObjectMetadata();
+            metadata.setContentType(CONTENT_TYPE);
+            metadata.setContentLength(content.length);
+
+            s3Client.get().putObject(bucketName, manifestKey(fileName),
+                    new ByteArrayInputStream(content), metadata);
+        } catch (Exception ex) {
+            logger.warn("Could not write manifest entry for {}", fileName, ex);
+        }
+    }
+
+    private String manifestKey(String fileName) {
+        return MANIFEST_FOLDER + fileName + MANIFEST_SUFFIX;
+    }
+
+    // lastChunkIndex is the index of the last chunk known to be stored, or -1
+    // when none is; attempts counts the syncs that stopped on a failed chunk
+    public record Checkpoint(String etag, int lastChunkIndex, int totalChunks,
+                             int attempts, boolean completed) {
+
+        // The number of chunks is only known once the whole file was split
+        public static Checkpoint started(String etag) {
+            return new Checkpoint(etag, -1, 0, 0, false);
+        }
+
+        public boolean matches(String otherEtag) {
+            return etag != null && etag.equals(otherEtag);
+        }
+
+        public Checkpoint advanceTo(int chunkIndex) {
+            return new Checkpoint(etag, chunkIndex, totalChunks, attempts, completed);
+        }
+
+        public Checkpoint failedAttempt() {
+            return new Checkpoint(etag, lastChunkIndex, totalChunks, attempts + 1, completed);
+        }
+
+        public Checkpoint complete(int chunks) {
+            return new Checkpoint(etag, chunks - 1, chunks, attempts, true);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package io.redis.devrel.demos.myjarvis.ingestion;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Runs files through three stages: download, parse and upload. Downloads and
+// uploads wait on the network, so they run on virtual threads; parsing is CPU
+// bound and gets a small pool of platform threads. The stages hand off through
+// bounded queues, so a slow stage holds back the one before it instead of
+// letting downloaded or parsed files pile up in memory.
+public class IngestionPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestionPipeline.class);
+
+    private int downloadConcurrency = 4;
+    private int parseThreads = Runtime.getRuntime().availableProcessors();
+    private int uploadConcurrency = 2;
+    private int queueCapacity = 2;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // Downloads return what the parse stage needs, or nothing when the file
+    // stops there (skipped or deferred). Parsing hands its result to the upload
+    // stage through the emitter, which it may call before it has finished, so
+    // a file can be uploaded while it is still being parsed. A stage that stops
+    // a file is responsible for recording its outcome.
+    public <S, D, P> List<StageStats> run(List<S> files,
+                                          Function<S, Optional<D>> download,
+                                          BiConsumer<D, Consumer<P>> parse,
+                                          Consumer<P> upload) {
+        Queue<S> pendingFiles = new ConcurrentLinkedQueue<>(files);
+        BlockingQueue<Optional<D>> downloaded = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Optional<P>> parsed = new ArrayBlockingQueue<>(queueCapacity);
+
+        var downloadStage = new StageCounters("download");
+        var parseStage = new StageCounters("parse");
+        var uploadStage = new StageCounters("upload");
+
+        try (var downloaders = Executors.newVirtualThreadPerTaskExecutor();
+             var parsers = Executors.newFixedThreadPool(parseThreads);
+             var uploaders = Executors.newVirtualThreadPerTaskExecutor()) {
+
+            var downloadWorkers = submit(downloaders, downloadConcurrency, () -> {
+                Consumer<D> emit = emitter(downloaded, downloadStage);
+                S file;
+                while ((file = pendingFiles.poll()) != null) {
+                    var item = file;
+                    downloadStage.run(() -> download.apply(item).ifPresent(emit));
+                }
+            });
+
+            var parseWorkers = submit(parsers, parseThreads, () -> {
+                Consumer<P> emit = emitter(parsed, parseStage);
+                Optional<D> item;
+                while ((item = downloaded.take()).isPresent()) {
+                    var downloadedItem = item.get();
+                    parseStage.run(() -> parse.accept(downloadedItem, emit));
+                }
+            });
+
+            var uploadWorkers = submit(uploaders, uploadConcurrency, () -> {
+                Optional<P> item;
+                while ((item = parsed.take()).isPresent()) {
+                    var parsedItem = item.get();
+                    uploadStage.run(() -> upload.accept(parsedItem));
+                }
+            });
+
+            // An empty item tells a worker of the next stage that nothing more
+            // is coming; each stage is closed once every worker before it is done
+            await(downloadWorkers);
+            for (int i = 0; i < parseThreads; i++) {
+                downloaded.put(Optional.empty());
+            }
+
+            await(parseWorkers);
+            for (int i = 0; i < uploadConcurrency; i++) {
+                parsed.put(Optional.empty());
+            }
+
+            await(uploadWorkers);
+
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            logger.warn("Ingestion pipeline interrupted", ex);
+        }
+
+        var stats = List.of(downloadStage.stats(), parseStage.stats(), uploadStage.stats());
+        stats.forEach(stage -> logger.info("Stage {} - Files: {}, Passed on: {}, Busy: {} ms, Throughput: {} files/s",
+                stage.name(), stage.files(), stage.passedOn(), stage.busyMillis(),
+                "%.2f".formatted(stage.filesPerSecond())));
+
+        return stats;
+    }
+
+    private <T> Consumer<T> emitter(BlockingQueue<Optional<T>> queue, StageCounters counters) {
+        return item -> {
+            try {
+                queue.put(Optional.of(item));
+                counters.passedOn.incrementAndGet();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while handing over to the next stage");
+            }
+        };
+    }
+
+    private List<Future<?>> submit(ExecutorService executor, int workers, Worker worker) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            futures.add(executor.submit(() -> {
+                try {
+                    worker.run();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }));
+        }
+        return futures;
+    }
+
+    private void await(List<Future<?>> futures) throws InterruptedException {
+        for (var future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                logger.error("Ingestion worker failed", ex.getCause());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Worker {
+        void run() throws InterruptedException;
+    }
+
+    private static class StageCounters {
+
+        private final String name;
+        private final long startedAt = System.nanoTime();
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong passedOn = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        StageCounters(String name) {
+            this.name = name;
+        }
+
+        void run(Runnable stage) {
+            var start = System.nanoTime();
+
+            try {
+                stage.run();
+            } catch (Exception ex) {
+                logger.error("Unexpected error in {} stage", name, ex);
+            } finally {
+                busyNanos.addAndGet(System.nanoTime() - start);
+                files.incrementAndGet();
+            }
+        }
+
+        StageStats stats() {
+            var elapsed = Math.max(1, System.nanoTime() - startedAt);
+            return new StageStats(name, files.get(), passedOn.get(),
+                    TimeUnit.NANOSECONDS.toMillis(busyNanos.get()),
+                    files.get() * 1_000_000_000d / elapsed);
+        }
+    }
+
+    public void setDownloadConcurrency(int downloadConcurrency) {
+        this.downloadConcurrency = downloadConcurrency;
+    }
+
+    public void setParseThreads(int parseThreads) {
+        this.parseThreads = parseThreads;
+    }
+
+    public void setUploadConcurrency(int uploadConcurrency) {
+        this.uploadConcurrency = uploadConcurrency;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public record StageStats(String name, long files, long passedOn,
+                             long busyMillis, double filesPerSecond) {}
+
+    public static class Builder {
+        private Optional<Integer> downloadConcurrency = Optional.empty();
+        private Optional<Integer> parseThreads = Optional.empty();
+        private Optional<Integer> uploadConcurrency = Optional.empty();
+        private Optional<Integer> queueCapacity = Optional.empty();
+
+        public Builder downloadConcurrency(int downloadConcurrency) {
+            this.downloadConcurrency = Optional.of(downloadConcurrency);
+            return this;
+        }
+
+        public Builder parseThreads(int parseThreads) {
+            this.parseThreads = Optional.of(parseThreads);
+            return this;
+        }
+
+        public Builder uploadConcurrency(int uploadConcurrency) {
+            this.uploadConcurrency = Optional.of(uploadConcurrency);
+            return this;
+        }
+
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = Optional.of(queueCapacity);
+            return this;
+        }
+
+        public IngestionPipeline build() {
+            IngestionPipeline ingestionPipeline = new IngestionPipeline();
+            downloadConcurrency.ifPresent(ingestionPipeline::setDownloadConcurrency);
+            parseThreads.ifPresent(ingestionPipeline::setParseThreads);
+            uploadConcurrency.ifPresent(ingestionPipeline::setUploadConcurrency);
+            queueCapacity.ifPresent(ingestionPipeline::setQueueCapacity);
+
+            return ingestionPipeline;
+        }
+    }
+}
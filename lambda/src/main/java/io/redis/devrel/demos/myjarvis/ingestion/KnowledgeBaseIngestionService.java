@@ -0,0 +1,556 @@
+package io.redis.devrel.demos.myjarvis.ingestion;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.segment.TextSegment;
+import io.redis.devrel.demos.myjarvis.ingestion.IngestionPipeline.StageStats;
+import io.redis.devrel.demos.myjarvis.ingestion.IngestionManifest.Checkpoint;
+import io.redis.devrel.demos.myjarvis.services.MemoryService;
+import io.redis.devrel.demos.myjarvis.services.MemoryService.KnowledgeBaseEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static io.redis.devrel.demos.myjarvis.helpers.Constants.*;
+
+public class KnowledgeBaseIngestionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(KnowledgeBaseIngestionService.class);
+
+    private static final String INGEST_FOLDER = "ingest/";
+    private static final String PROCESSED_FOLDER = "processed/";
+    private static final String FAILED_FOLDER = "failed/";
+    private static final String FOLDER_DELIMITER = "/";
+
+    // Failed chunks are retried on the next sync; a file that keeps failing
+    // is eventually moved aside so it doesn't block the ones behind it
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int MIN_SEGMENT_LENGTH = 50;
+    private static final String TEMP_FILE_PREFIX = "knowledge-base-";
+
+    private final Supplier<DocumentParser> documentParser;
+    private final Supplier<DocumentSplitter> documentSplitter;
+    private final Supplier<AmazonS3> s3Client;
+    private final MemoryService memoryService;
+    private final IngestionManifest manifest;
+    private final IngestionPipeline ingestionPipeline = IngestionPipeline.builder()
+            .downloadConcurrency(Integer.parseInt(KNOWLEDGE_BASE_DOWNLOAD_CONCURRENCY))
+            .parseThreads(Integer.parseInt(KNOWLEDGE_BASE_PARSE_THREADS))
+            .uploadConcurrency(Integer.parseInt(KNOWLEDGE_BASE_UPLOAD_CONCURRENCY))
+            .queueCapacity(Integer.parseInt(KNOWLEDGE_BASE_PIPELINE_QUEUE_CAPACITY))
+            .build();
+    // Segments are written a window at a time, sized so a window fills every
+    // in-flight batch once, and the checkpoint is written after each window
+    private final int writeWindow = Integer.parseInt(KNOWLEDGE_BASE_WRITE_BATCH_SIZE)
+            * Integer.parseInt(KNOWLEDGE_BASE_WRITE_MAX_IN_FLIGHT);
+    private final boolean pageStreaming = Boolean.parseBoolean(KNOWLEDGE_BASE_PAGE_STREAMING);
+    private final PageStreamingPdfSplitter pageStreamingSplitter = new PageStreamingPdfSplitter(
+            Integer.parseInt(MAX_SEGMENT_SIZE_IN_CHARS),
+            Integer.parseInt(MAX_SEGMENT_OVERLAP_IN_CHARS));
+    private final Duration defaultTimeBudget = Duration.ofSeconds(
+            Long.parseLong(KNOWLEDGE_BASE_SYNC_TIME_BUDGET_IN_SECONDS));
+
+    public KnowledgeBaseIngestionService(Supplier<DocumentParser> documentParser,
+                                         Supplier<DocumentSplitter> documentSplitter,
+                                         Supplier<AmazonS3> s3Client,
+                                         MemoryService memoryService) {
+        this.documentParser = documentParser;
+        this.documentSplitter = documentSplitter;
+        this.s3Client = s3Client;
+        this.memoryService = memoryService;
+        this.manifest = new IngestionManifest(s3Client, KNOWLEDGE_BASE_BUCKET_NAME);
+    }
+
+    public ProcessingResult sync() {
+        return sync(defaultTimeBudget);
+    }
+
+    // Chunks are only started while there is time left, so a sync that runs
+    // out of time stops between chunks and checkpoints where it got to
+    public ProcessingResult sync(Duration timeBudget) {
+        logger.info("Starting knowledge base sync with a time budget of {} ms", timeBudget.toMillis());
+
+        var deadline = System.nanoTime() + timeBudget.toNanos();
+        var filesToProcess = listFilesToProcess();
+
+        if (filesToProcess.isEmpty()) {
+            logger.debug("No new files to process");
+            return new ProcessingResult(0, 0, 0, 0, 0, 0, List.of());
+        }
+
+        var result = processFiles(filesToProcess, deadline);
+
+        logger.info("Completed - Total files: {}, Processed: {}, Skipped: {}, Pending: {}, Failed: {}, Total chunks: {}",
+                result.totalFiles(), result.processedFiles(), result.skippedFiles(),
+                result.pendingFiles(), result.failedFiles(), result.totalChunks());
+
+        return result;
+    }
+
+    private List<S3ObjectSummary> listFilesToProcess() {
+        List<S3ObjectSummary> files = new ArrayList<>();
+
+        try {
+            var request = new ListObjectsV2Request()
+                    .withBucketName(KNOWLEDGE_BASE_BUCKET_NAME)
+                    .withPrefix(INGEST_FOLDER);
+
+            // Each page holds at most 1000 keys, so keep following the
+            // continuation token until the listing is complete
+            var page = s3Client.get().listObjectsV2(request);
+            page.getObjectSummaries().stream().filter(this::isValidFile).forEach(files::add);
+
+            while (page.isTruncated()) {
+                request.setContinuationToken(page.getNextContinuationToken());
+                page = s3Client.get().listObjectsV2(request);
+                page.getObjectSummaries().stream().filter(this::isValidFile).forEach(files::add);
+            }
+
+        } catch (Exception e) {
+            logger.error("Failed to list S3 objects", e);
+        }
+
+        return files;
+    }
+
+    private boolean isValidFile(S3ObjectSummary objectSummary) {
+        var key = objectSummary.getKey();
+
+        return key.startsWith(INGEST_FOLDER)
+                && !key.endsWith(FOLDER_DELIMITER)
+                && objectSummary.getSize() > 0;
+    }
+
+    private ProcessingResult processFiles(List<S3ObjectSummary> files, long deadline) {
+        var processedFiles = new AtomicInteger(0);
+        var skippedFiles = new AtomicInteger(0);
+        var pendingFiles = new AtomicInteger(0);
+        var failedFiles = new AtomicInteger(0);
+        var totalChunks = new AtomicInteger(0);
+
+        Consumer<FileResult> recordResult = fileResult -> {
+            totalChunks.addAndGet(fileResult.chunksStored());
+
+            switch (fileResult.status()) {
+                case PROCESSED -> processedFiles.incrementAndGet();
+                case SKIPPED -> skippedFiles.incrementAndGet();
+                case PENDING -> pendingFiles.incrementAndGet();
+                case FAILED -> failedFiles.incrementAndGet();
+            }
+        };
+
+        var stageStats = ingestionPipeline.<S3ObjectSummary, DownloadedFile, ParsedFile>run(files,
+                file -> downloadFile(file, deadline, recordResult),
+                (downloadedFile, emit) -> parseFile(downloadedFile, emit, recordResult),
+                parsedFile -> recordResult.accept(uploadFile(parsedFile, deadline)));
+
+        return new ProcessingResult(
+                files.size(),
+                processedFiles.get(),
+                skippedFiles.get(),
+                pendingFiles.get(),
+                failedFiles.get(),
+                totalChunks.get(),
+                stageStats
+        );
+    }
+
+    private Optional<DownloadedFile> downloadFile(S3ObjectSummary fileSummary, long deadline,
+                                                  Consumer<FileResult> recordResult) {
+        var fileKey = fileSummary.getKey();
+        var relativeKey = fileKey.substring(INGEST_FOLDER.length());
+        var startTime = System.currentTimeMillis();
+
+        if (isPastDeadline(deadline)) {
+            recordResult.accept(new FileResult(FileStatus.PENDING, 0));
+            return Optional.empty();
+        }
+
+        // A checkpoint for a different ETag belongs to an older version of
+        // the file, so that version is ingested again from the start
+        var checkpoint = manifest.read(relativeKey).filter(c -> c.matches(fileSummary.getETag()));
+
+        if (checkpoint.map(Checkpoint::completed).orElse(false)) {
+            logger.info("Skipping {}, this version was already ingested", extractFileName(fileKey));
+            moveToProcessed(fileKey);
+            recordResult.accept(new FileResult(FileStatus.SKIPPED, 0));
+            return Optional.empty();
+        }
+
+        // Downloaded to local storage rather than the heap, so files waiting
+        // to be parsed don't count against the function's memory
+        Path localFile = null;
+        try (S3Object s3Object = s3Client.get().getObject(KNOWLEDGE_BASE_BUCKET_NAME, fileKey);
+             InputStream inputStream = s3Object.getObjectContent()) {
+
+            localFile = Files.createTempFile(TEMP_FILE_PREFIX, null);
+            Files.copy(inputStream, localFile, StandardCopyOption.REPLACE_EXISTING);
+
+            return Optional.of(new DownloadedFile(fileSummary, checkpoint, localFile, startTime));
+
+        } catch (Exception e) {
+            // Downloads are retried on the next sync rather than failing the file
+            logger.error("Download error for {}", fileKey, e);
+            deleteLocalFile(localFile);
+            recordResult.accept(new FileResult(FileStatus.PENDING, 0));
+            return Optional.empty();
+        }
+    }
+
+    private void parseFile(DownloadedFile downloadedFile, Consumer<ParsedFile> emit,
+                           Consumer<FileResult> recordResult) {
+        try {
+            if (pageStreaming) {
+                streamSegments(downloadedFile, emit);
+            } else {
+                splitDocument(downloadedFile, emit, recordResult);
+            }
+        } finally {
+            deleteLocalFile(downloadedFile.localFile());
+        }
+    }
+
+    // Hands the file to the upload stage right away and feeds it segments
+    // page by page, so storing starts before the document is fully read
+    private void streamSegments(DownloadedFile downloadedFile, Consumer<ParsedFile> emit) {
+        var fileKey = downloadedFile.summary().getKey();
+        var segments = SegmentStream.bounded(writeWindow);
+
+        emit.accept(new ParsedFile(downloadedFile.summary(), downloadedFile.checkpoint(),
+                segments, downloadedFile.startTime()));
+
+        try {
+            pageStreamingSplitter.split(downloadedFile.localFile(), segment -> {
+                try {
+                    return segments.offer(segment);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            });
+            segments.finish();
+
+        } catch (Exception e) {
+            logger.error("Parse error for {}", fileKey, e);
+            segments.fail();
+        }
+    }
+
+    private void splitDocument(DownloadedFile downloadedFile, Consumer<ParsedFile> emit,
+                               Consumer<FileResult> recordResult) {
+        var fileKey = downloadedFile.summary().getKey();
+
+        try {
+            // Parse the document
+            var document = parseDocument(fileKey, downloadedFile.localFile());
+            if (document.isEmpty()) {
+                moveToFailed(fileKey, "Empty or unparseable document");
+                recordResult.accept(new FileResult(FileStatus.FAILED, 0));
+                return;
+            }
+
+            // Split into segments
+            var segments = documentSplitter.get().split(document.get());
+            if (segments.isEmpty()) {
+                moveToFailed(fileKey, "No segments created from document");
+                recordResult.accept(new FileResult(FileStatus.FAILED, 0));
+                return;
+            }
+
+            emit.accept(new ParsedFile(downloadedFile.summary(), downloadedFile.checkpoint(),
+                    SegmentStream.of(segments), downloadedFile.startTime()));
+
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Failed to process {}", fileKey, e);
+            moveToFailed(fileKey, e.getMessage());
+            recordResult.accept(new FileResult(FileStatus.FAILED, 0));
+        }
+    }
+
+    private FileResult uploadFile(ParsedFile parsedFile, long deadline) {
+        var fileSummary = parsedFile.summary();
+        var fileKey = fileSummary.getKey();
+        var fileName = extractFileName(fileKey);
+        var relativeKey = fileKey.substring(INGEST_FOLDER.length());
+        var etag = fileSummary.getETag();
+        var segments = parsedFile.segments();
+
+        var progress = parsedFile.checkpoint().orElse(Checkpoint.started(etag));
+        if (progress.lastChunkIndex() >= 0) {
+            logger.info("Resuming {} after segment {}", fileName, progress.lastChunkIndex() + 1);
+        }
+
+        // Store the segments in knowledge base, one window at a time
+        var chunksStored = 0;
+        var index = -1;
+        var windowFrom = progress.lastChunkIndex() + 1;
+        var entries = new ArrayList<KnowledgeBaseEntry>();
+
+        try {
+            while (true) {
+                var next = segments.next();
+
+                if (next.isPresent()) {
+                    index++;
+
+                    // Already stored before the sync that is being resumed
+                    if (index < windowFrom) {
+                        continue;
+                    }
+
+                    var segment = next.get();
+
+                    // Skip very short segments
+                    if (segment.text().trim().length() >= MIN_SEGMENT_LENGTH) {
+                        // Create entry with metadata
+                        var entryText = formatSegmentWithMetadata(
+                                segment,
+                                fileName,
+                                index + 1,
+                                segments.totalSegments()
+                        );
+
+                        entries.add(new KnowledgeBaseEntry(entryId(fileKey, etag, index), entryText));
+                    }
+
+                    if (index + 1 - windowFrom < writeWindow) {
+                        continue;
+                    }
+                }
+
+                var windowTo = index + 1;
+                if (windowTo > windowFrom) {
+                    if (isPastDeadline(deadline)) {
+                        manifest.write(relativeKey, progress);
+                        logger.info("Time budget exhausted, {} will resume after segment {}",
+                                fileName, progress.lastChunkIndex() + 1);
+                        return new FileResult(FileStatus.PENDING, chunksStored);
+                    }
+
+                    var failedIds = memoryService.createKnowledgeBaseEntries(entries);
+                    chunksStored += entries.size() - failedIds.size();
+
+                    // The checkpoint only moves past segments that are all stored, so
+                    // it stops right before the first failure within the window
+                    var firstFailed = -1;
+                    for (int i = windowFrom; i < windowTo && firstFailed < 0; i++) {
+                        if (failedIds.contains(entryId(fileKey, etag, i))) {
+                            firstFailed = i;
+                        }
+                    }
+
+                    if (firstFailed >= 0) {
+                        if (firstFailed > windowFrom) {
+                            progress = progress.advanceTo(firstFailed - 1);
+                        }
+                        return handleFailedSegment(fileKey, relativeKey, progress, firstFailed, chunksStored);
+                    }
+
+                    progress = progress.advanceTo(windowTo - 1);
+                    windowFrom = windowTo;
+                    entries.clear();
+                }
+
+                if (next.isEmpty()) {
+                    break;
+                }
+                manifest.write(relativeKey, progress);
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            manifest.write(relativeKey, progress);
+            return new FileResult(FileStatus.PENDING, chunksStored);
+        } finally {
+            // However the loop ends, the parser must not be left blocked on a
+            // stream nobody reads anymore, or the pipeline never drains
+            segments.close();
+        }
+
+        // Whatever was stored stays checkpointed in case the file is fixed
+        // and dropped again with the same content
+        if (segments.isFailed() || index < 0) {
+            manifest.write(relativeKey, progress);
+            moveToFailed(fileKey, segments.isFailed()
+                    ? "Document could not be fully parsed" : "No segments created from document");
+            return new FileResult(FileStatus.FAILED, chunksStored);
+        }
+
+        manifest.write(relativeKey, progress.complete(index + 1));
+
+        // Move to processed folder
+        moveToProcessed(fileKey);
+
+        var duration = System.currentTimeMillis() - parsedFile.startTime();
+        logger.info("Processed {} ({} bytes) in {}ms - {} segments stored out of {} total",
+                fileName, fileSummary.getSize(), duration, chunksStored, index + 1);
+
+        return new FileResult(FileStatus.PROCESSED, chunksStored);
+    }
+
+    private FileResult handleFailedSegment(String fileKey, String relativeKey, Checkpoint progress,
+                                           int segmentIndex, int chunksStored) {
+        var failedProgress = progress.failedAttempt();
+        manifest.write(relativeKey, failedProgress);
+
+        if (failedProgress.attempts() >= MAX_ATTEMPTS) {
+            moveToFailed(fileKey, "Segment %d could not be stored after %d attempts"
+                    .formatted(segmentIndex + 1, failedProgress.attempts()));
+            return new FileResult(FileStatus.FAILED, chunksStored);
+        }
+
+        logger.warn("Failed to store segment {} of {}, will retry on the next sync",
+                segmentIndex + 1, fileKey);
+        return new FileResult(FileStatus.PENDING, chunksStored);
+    }
+
+    // Derived from the file version and position, so a segment that is stored
+    // again after a resume replaces the earlier copy instead of duplicating it
+    private String entryId(String fileKey, String etag, int segmentIndex) {
+        var source = "%s:%s:%d".formatted(fileKey, etag, segmentIndex);
+        return UUID.nameUUIDFromBytes(source.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private boolean isPastDeadline(long deadline) {
+        return System.nanoTime() - deadline >= 0;
+    }
+
+    private Optional<Document> parseDocument(String fileKey, Path localFile) {
+        try (InputStream inputStream = Files.newInputStream(localFile)) {
+
+            Document document = documentParser.get().parse(inputStream);
+
+            if (document == null || document.text() == null || document.text().isBlank()) {
+                logger.warn("Empty document: {}", fileKey);
+                return Optional.empty();
+            }
+
+            return Optional.of(document);
+
+        } catch (Exception e) {
+            logger.error("Parse error for {}", fileKey, e);
+            return Optional.empty();
+        }
+    }
+
+    private String formatSegmentWithMetadata(TextSegment segment,
+                                             String fileName,
+                                             int segmentNumber,
+                                             OptionalInt totalSegments) {
+        // Add metadata header to help with context understanding. Streamed
+        // segments carry their page instead, as the total isn't known yet.
+        var page = segment.metadata().getInteger(PageStreamingPdfSplitter.PAGE_METADATA_KEY);
+
+        var metadata = totalSegments.isPresent()
+                ? String.format(
+                        "[Document: %s | Section %d of %d]\n",
+                        fileName,
+                        segmentNumber,
+                        totalSegments.getAsInt())
+                : String.format(
+                        "[Document: %s | Page %d | Section %d]\n",
+                        fileName,
+                        page != null ? page : 1,
+                        segmentNumber);
+
+        return metadata + segment.text().trim();
+    }
+
+    private void deleteLocalFile(Path localFile) {
+        if (localFile == null) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(localFile);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}", localFile, e);
+        }
+    }
+
+    private String extractFileName(String fileKey) {
+        var lastSlash = fileKey.lastIndexOf('/');
+        return lastSlash >= 0 ? fileKey.substring(lastSlash + 1) : fileKey;
+    }
+
+    private void moveToProcessed(String sourceKey) {
+        try {
+            var destKey = PROCESSED_FOLDER + sourceKey.substring(INGEST_FOLDER.length());
+
+            s3Client.get().copyObject(
+                    KNOWLEDGE_BASE_BUCKET_NAME, sourceKey,
+                    KNOWLEDGE_BASE_BUCKET_NAME, destKey
+            );
+
+            s3Client.get().deleteObject(KNOWLEDGE_BASE_BUCKET_NAME, sourceKey);
+
+            logger.debug("Moved {} to processed folder", sourceKey);
+
+        } catch (Exception e) {
+            logger.warn("Could not move {} to processed folder", sourceKey, e);
+        }
+    }
+
+    private void moveToFailed(String sourceKey, String reason) {
+        try {
+            var destKey = FAILED_FOLDER + sourceKey.substring(INGEST_FOLDER.length());
+
+            s3Client.get().copyObject(
+                    KNOWLEDGE_BASE_BUCKET_NAME, sourceKey,
+                    KNOWLEDGE_BASE_BUCKET_NAME, destKey
+            );
+
+            s3Client.get().deleteObject(KNOWLEDGE_BASE_BUCKET_NAME, sourceKey);
+
+            logger.info("Moved failed document {} to failed folder. Reason: {}", sourceKey, reason);
+
+        } catch (Exception e) {
+            logger.error("Could not move {} to failed folder", sourceKey, e);
+        }
+    }
+
+    private enum FileStatus {
+        PROCESSED, SKIPPED, PENDING, FAILED
+    }
+
+    private record FileResult(FileStatus status, int chunksStored) {}
+
+    private record DownloadedFile(S3ObjectSummary summary, Optional<Checkpoint> checkpoint,
+                                  Path localFile, long startTime) {}
+
+    private record ParsedFile(S3ObjectSummary summary, Optional<Checkpoint> checkpoint,
+                              SegmentStream segments, long startTime) {}
+
+    public record ProcessingResult(
+            int totalFiles,
+            int processedFiles,
+            int skippedFiles,
+            int pendingFiles,
+            int failedFiles,
+            int totalChunks,
+            List<StageStats> stageStats
+    ) {}
+}
\ No newline at end of file
@@ -0,0 +1,150 @@
+package io.redis.devrel.demos.myjarvis.ingestion;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Predicate;
+
+// Extracts a PDF one page at a time and cuts segments as soon as enough text
+// is buffered, carrying the overlap over page boundaries. The document is
+// backed by a scratch file instead of the heap, so memory stays proportional
+// to a page rather than to the whole document.
+public class PageStreamingPdfSplitter {
+
+    public static final String PAGE_METADATA_KEY = "page";
+
+    // Boundaries tried in order of preference when cutting a segment
+    private static final List<String> BOUNDARIES = List.of("\n\n", "\n", ". ", " ");
+
+    private final int maxSegmentSize;
+    private final int maxOverlap;
+
+    public PageStreamingPdfSplitter(int maxSegmentSize, int maxOverlap) {
+        this.maxSegmentSize = maxSegmentSize;
+        // The overlap has to stay below the shortest cut or a cut makes no progress
+        this.maxOverlap = Math.min(maxOverlap, maxSegmentSize / 2 - 1);
+    }
+
+    // Calls the consumer with each segment in document order and stops early
+    // when it returns false. Returns the number of segments handed over.
+    public int split(Path pdfFile, Predicate<TextSegment> segmentConsumer) throws IOException {
+        var state = new SplitState(segmentConsumer);
+
+        try (PDDocument document = PDDocument.load(pdfFile.toFile(), MemoryUsageSetting.setupTempFileOnly())) {
+            var stripper = new PDFTextStripper();
+
+            for (int page = 1; page <= document.getNumberOfPages() && !state.stopped; page++) {
+                stripper.setStartPage(page);
+                stripper.setEndPage(page);
+
+                state.append(stripper.getText(document), page);
+                state.cutWhileFull();
+            }
+        }
+
+        state.finish();
+        return state.emitted;
+    }
+
+    private class SplitState {
+
+        private final Predicate<TextSegment> segmentConsumer;
+        private final StringBuilder buffer = new StringBuilder();
+        // Offsets in the buffer where each buffered page starts
+        private final Deque<int[]> pageStarts = new ArrayDeque<>();
+        private int carried;
+        private int emitted;
+        private boolean stopped;
+
+        SplitState(Predicate<TextSegment> segmentConsumer) {
+            this.segmentConsumer = segmentConsumer;
+        }
+
+        void append(String pageText, int page) {
+            if (pageText == null || pageText.isBlank()) {
+                return;
+            }
+
+            if (!buffer.isEmpty()) {
+                buffer.append("\n\n");
+            }
+            pageStarts.addLast(new int[]{buffer.length(), page});
+            buffer.append(pageText.strip());
+        }
+
+        void cutWhileFull() {
+            while (!stopped && buffer.length() >= maxSegmentSize) {
+                var cut = findCut();
+                emit(buffer.substring(0, cut));
+                keepOverlap(cut);
+            }
+        }
+
+        void finish() {
+            // Whatever is left beyond the carried overlap was never emitted
+            if (!stopped && buffer.length() > carried && !buffer.toString().isBlank()) {
+                emit(buffer.toString());
+            }
+        }
+
+        private int findCut() {
+            var minCut = maxSegmentSize / 2;
+
+            for (var boundary : BOUNDARIES) {
+                var index = buffer.lastIndexOf(boundary, maxSegmentSize - boundary.length());
+                if (index >= minCut) {
+                    return index + boundary.length();
+                }
+            }
+
+            return maxSegmentSize;
+        }
+
+        private void emit(String text) {
+            var trimmed = text.strip();
+            if (trimmed.isEmpty()) {
+                return;
+            }
+
+            var segment = TextSegment.from(trimmed, new Metadata().put(PAGE_METADATA_KEY, pageAt(0)));
+            emitted++;
+            stopped = !segmentConsumer.test(segment);
+        }
+
+        private void keepOverlap(int cut) {
+            // Start the overlap at a word boundary instead of mid-word
+            var keepFrom = Math.max(1, cut - maxOverlap);
+            while (keepFrom < cut && !Character.isWhitespace(buffer.charAt(keepFrom - 1))) {
+                keepFrom++;
+            }
+
+            var removed = keepFrom;
+            var startPage = pageAt(removed);
+            buffer.delete(0, removed);
+            carried = cut - removed;
+
+            pageStarts.removeIf(start -> start[0] <= removed);
+            pageStarts.forEach(start -> start[0] -= removed);
+            pageStarts.addFirst(new int[]{0, startPage});
+        }
+
+        private int pageAt(int offset) {
+            var page = pageStarts.isEmpty() ? 1 : pageStarts.peekFirst()[1];
+            for (var start : pageStarts) {
+                if (start[0] > offset) {
+                    break;
+                }
+                page = start[1];
+            }
+            return page;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.redis.devrel.demos.myjarvis.ingestion;
+
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// The segments of one file, in document order. A stream is either complete
+// up front, or filled by the parse stage while the upload stage drains it,
+// in which case the bounded queue keeps the parser at most a window ahead.
+public class SegmentStream {
+
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final BlockingQueue<TextSegment> segments;
+    private final OptionalInt totalSegments;
+    private volatile boolean finished;
+    private volatile boolean failed;
+    private volatile boolean closed;
+
+    private SegmentStream(BlockingQueue<TextSegment> segments, OptionalInt totalSegments, boolean finished) {
+        this.segments = segments;
+        this.totalSegments = totalSegments;
+        this.finished = finished;
+    }
+
+    public static SegmentStream of(List<TextSegment> segments) {
+        return new SegmentStream(new ArrayBlockingQueue<>(Math.max(1, segments.size()), false, segments),
+                OptionalInt.of(segments.size()), true);
+    }
+
+    public static SegmentStream bounded(int capacity) {
+        return new SegmentStream(new ArrayBlockingQueue<>(capacity), OptionalInt.empty(), false);
+    }
+
+    // Known only when the whole file was split before the stream was handed over
+    public OptionalInt totalSegments() {
+        return totalSegments;
+    }
+
+    // Blocks while the stream is full; returns false once the consumer closed it
+    public boolean offer(TextSegment segment) throws InterruptedException {
+        while (!closed) {
+            if (segments.offer(segment, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void finish() {
+        finished = true;
+    }
+
+    public void fail() {
+        failed = true;
+        finished = true;
+    }
+
+    // Empty once every segment was taken and the producer has finished
+    public Optional<TextSegment> next() throws InterruptedException {
+        while (true) {
+            var segment = segments.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            if (segment != null) {
+                return Optional.of(segment);
+            }
+            if (finished && segments.isEmpty()) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    // Called by the consumer when it stops early, so the producer stops too
+    public void close() {
+        closed = true;
+        segments.clear();
+    }
+}
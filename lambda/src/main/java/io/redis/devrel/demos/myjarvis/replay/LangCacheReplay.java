@@ -0,0 +1,327 @@
+package io.redis.devrel.demos.myjarvis.replay;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.openai.OpenAiEmbeddingModel;
+import dev.langchain4j.store.embedding.CosineSimilarity;
+import io.redis.devrel.demos.myjarvis.clients.HttpClients;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToDoubleBiFunction;
+
+import static io.redis.devrel.demos.myjarvis.helpers.Constants.*;
+import static io.redis.devrel.demos.myjarvis.helpers.TextHelper.cosineSimilarity;
+import static io.redis.devrel.demos.myjarvis.helpers.TextHelper.termFrequencies;
+
+// Replays a recorded utterance log (the UtteranceLog lines written when
+// LANGCACHE_UTTERANCE_LOG_ENABLED is set) against a local stand-in for
+// LangCache, once per similarity threshold. For each threshold it reports how
+// many lookups would have hit, how often the cached answer agreed with the
+// answer the LLM actually gave, and how many LLM calls that would have saved.
+//
+// Usage: LangCacheReplay <log file> [--from 0.70] [--to 0.99] [--step 0.01]
+//        [--ttl 3600] [--min-agreement 0.95] [--answer-agreement 0.6] [--embeddings]
+//
+// Prompts are compared lexically by default. With --embeddings they are
+// compared by OpenAI embeddings instead, which is closer to how LangCache
+// scores them, but neither puts scores on exactly LangCache's scale.
+public class LangCacheReplay {
+
+    private static final ObjectMapper objectMapper = HttpClients.objectMapper();
+    private static final String EMBEDDING_MODEL_NAME = "text-embedding-3-small";
+    private static final String LLM_SOURCE = "llm";
+
+    private final List<Utterance> utterances;
+    private final ToDoubleBiFunction<String, String> promptSimilarity;
+    private final double answerAgreement;
+    private final long timeToLiveInMillis;
+
+    public LangCacheReplay(List<Utterance> utterances,
+                           ToDoubleBiFunction<String, String> promptSimilarity,
+                           double answerAgreement,
+                           long timeToLiveInSeconds) {
+        this.utterances = utterances;
+        this.promptSimilarity = promptSimilarity;
+        this.answerAgreement = answerAgreement;
+        this.timeToLiveInMillis = TimeUnit.SECONDS.toMillis(timeToLiveInSeconds);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: LangCacheReplay <log file> [--from 0.70] [--to 0.99] [--step 0.01] "
+                    + "[--ttl 3600] [--min-agreement 0.95] [--answer-agreement 0.6] [--embeddings]");
+            System.exit(1);
+        }
+
+        var options = Options.parse(args);
+        var utterances = readUtterances(Path.of(args[0]));
+        if (utterances.isEmpty()) {
+            System.err.println("No utterances found in " + args[0]);
+            System.exit(1);
+        }
+
+        var replay = new LangCacheReplay(utterances,
+                options.embeddings() ? embeddingSimilarity() : lexicalSimilarity(),
+                options.answerAgreement(), options.timeToLiveInSeconds());
+
+        List<ThresholdResult> results = new ArrayList<>();
+        for (var threshold = options.from(); threshold <= options.to() + 1e-9; threshold += options.step()) {
+            results.add(replay.run(Math.round(threshold * 1000) / 1000.0));
+        }
+
+        printReport(utterances.size(), results, options.minAgreement());
+    }
+
+    // Lookups go through the entries cached so far for the same user; a miss
+    // is answered by the LLM and, when it was admitted, cached for later
+    public ThresholdResult run(double threshold) {
+        Map<String, List<Utterance>> cache = new HashMap<>();
+        var overall = new Counts();
+        Map<String, Counts> byIntent = new TreeMap<>();
+
+        for (var utterance : utterances) {
+            var intentCounts = byIntent.computeIfAbsent(utterance.intentOrDefault(), intent -> new Counts());
+            var entries = cache.computeIfAbsent(utterance.userId(), userId -> new ArrayList<>());
+            entries.removeIf(entry -> utterance.timestamp() - entry.timestamp() >= timeToLiveInMillis);
+
+            Utterance best = null;
+            var bestSimilarity = threshold;
+            for (var entry : entries) {
+                var similarity = promptSimilarity.applyAsDouble(entry.prompt(), utterance.prompt());
+                if (similarity >= bestSimilarity) {
+                    best = entry;
+                    bestSimilarity = similarity;
+                }
+            }
+
+            if (best == null) {
+                overall.miss();
+                intentCounts.miss();
+                if (utterance.isCacheable()) {
+                    entries.add(utterance);
+                }
+                continue;
+            }
+
+            // Only answers the LLM produced tell what the right answer was;
+            // the others were served from the cache when they were recorded
+            if (LLM_SOURCE.equals(utterance.source())) {
+                var agrees = agrees(best.response(), utterance.response());
+                overall.judgedHit(agrees);
+                intentCounts.judgedHit(agrees);
+            } else {
+                overall.hit();
+                intentCounts.hit();
+            }
+        }
+
+        return new ThresholdResult(threshold, overall, byIntent);
+    }
+
+    private boolean agrees(String cachedResponse, String actualResponse) {
+        if (cachedResponse == null || actualResponse == null) {
+            return false;
+        }
+        if (cachedResponse.strip().equalsIgnoreCase(actualResponse.strip())) {
+            return true;
+        }
+        return cosineSimilarity(termFrequencies(cachedResponse), termFrequencies(actualResponse)) >= answerAgreement;
+    }
+
+    private static void printReport(int total, List<ThresholdResult> results, double minAgreement) {
+        System.out.printf("Replayed %d utterances%n%n", total);
+        System.out.printf("%-10s %8s %9s %8s %10s %14s%n",
+                "threshold", "hits", "hit rate", "judged", "agreement", "avoided calls");
+
+        for (var result : results) {
+            var counts = result.overall();
+            System.out.printf("%-10.3f %8d %8.1f%% %8d %9s %14.1f%n",
+                    result.threshold(), counts.hits, 100.0 * counts.hitRate(), counts.judged,
+                    formatRate(counts.agreementRate()), counts.avoidedCalls());
+        }
+
+        System.out.println();
+        recommend(results, minAgreement, ThresholdResult::overall).ifPresentOrElse(
+                best -> System.out.printf("Recommended threshold: %.3f (%.1f avoided calls, %s agreement)%n",
+                        best.threshold(), best.overall().avoidedCalls(),
+                        formatRate(best.overall().agreementRate())),
+                () -> System.out.printf("No threshold reaches %.0f%% agreement%n", 100 * minAgreement));
+
+        var intents = results.get(0).byIntent().keySet();
+        if (intents.size() < 2) {
+            return;
+        }
+
+        System.out.println();
+        System.out.println("Per intent:");
+        List<String> overrides = new ArrayList<>();
+        for (var intent : intents) {
+            var best = recommend(results, minAgreement, result -> result.byIntent().get(intent));
+            if (best.isPresent()) {
+                var counts = best.get().byIntent().get(intent);
+                System.out.printf("  %-28s %.3f (%.1f avoided calls, %s agreement)%n", intent,
+                        best.get().threshold(), counts.avoidedCalls(), formatRate(counts.agreementRate()));
+                overrides.add(intent + "=" + best.get().threshold());
+            } else {
+                System.out.printf("  %-28s no threshold reaches %.0f%% agreement%n", intent, 100 * minAgreement);
+            }
+        }
+        System.out.println();
+        System.out.println("LANGCACHE_INTENT_SIMILARITY_THRESHOLDS=" + String.join(",", overrides));
+    }
+
+    // The threshold that avoids the most LLM calls among those whose cached
+    // answers agree often enough; ties go to the higher, safer threshold
+    private static Optional<ThresholdResult> recommend(List<ThresholdResult> results, double minAgreement,
+                                                       Function<ThresholdResult, Counts> counts) {
+        ThresholdResult best = null;
+        for (var result : results) {
+            var candidate = counts.apply(result);
+            if (candidate.judged == 0 || candidate.agreementRate() < minAgreement) {
+                continue;
+            }
+            if (best == null || candidate.avoidedCalls() >= counts.apply(best).avoidedCalls()) {
+                best = result;
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+
+    private static String formatRate(double rate) {
+        return Double.isNaN(rate) ? "-" : String.format("%.1f%%", 100 * rate);
+    }
+
+    // Log lines carry a level and logger name before the JSON; lines that
+    // are not utterances are skipped
+    static List<Utterance> readUtterances(Path logFile) throws IOException {
+        List<Utterance> utterances = new ArrayList<>();
+
+        try (var lines = Files.lines(logFile)) {
+            lines.forEach(line -> {
+                var start = line.indexOf('{');
+                var end = line.lastIndexOf('}');
+                if (start < 0 || end <= start) {
+                    return;
+                }
+                try {
+                    var utterance = objectMapper.readValue(line.substring(start, end + 1), Utterance.class);
+                    if (utterance.userId() != null && utterance.prompt() != null) {
+                        utterances.add(utterance);
+                    }
+                } catch (Exception ex) {
+                    // Not an utterance
+                }
+            });
+        }
+
+        utterances.sort(Comparator.comparingLong(Utterance::timestamp));
+        return utterances;
+    }
+
+    private static ToDoubleBiFunction<String, String> lexicalSimilarity() {
+        Map<String, Map<String, Integer>> terms = new HashMap<>();
+        return (left, right) -> cosineSimilarity(
+                terms.computeIfAbsent(left, text -> termFrequencies(text)),
+                terms.computeIfAbsent(right, text -> termFrequencies(text)));
+    }
+
+    private static ToDoubleBiFunction<String, String> embeddingSimilarity() {
+        EmbeddingModel embeddingModel = OpenAiEmbeddingModel.builder()
+                .apiKey(OPENAI_API_KEY)
+                .modelName(EMBEDDING_MODEL_NAME)
+                .build();
+
+        Map<String, Embedding> embeddings = new HashMap<>();
+        return (left, right) -> CosineSimilarity.between(
+                embeddings.computeIfAbsent(left, text -> embeddingModel.embed(text).content()),
+                embeddings.computeIfAbsent(right, text -> embeddingModel.embed(text).content()));
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Utterance(long timestamp, String userId, String intent, String prompt,
+                            String response, String source, Boolean cacheable) {
+
+        String intentOrDefault() {
+            return intent != null ? intent : "default";
+        }
+
+        // Logs without the flag predate the admission policy
+        boolean isCacheable() {
+            return cacheable == null || cacheable;
+        }
+    }
+
+    public record ThresholdResult(double threshold, Counts overall, Map<String, Counts> byIntent) {}
+
+    public static class Counts {
+
+        private int lookups;
+        private int hits;
+        private int judged;
+        private int agreeing;
+
+        void miss() {
+            lookups++;
+        }
+
+        void hit() {
+            lookups++;
+            hits++;
+        }
+
+        void judgedHit(boolean agrees) {
+            hit();
+            judged++;
+            if (agrees) {
+                agreeing++;
+            }
+        }
+
+        public double hitRate() {
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        public double agreementRate() {
+            return judged == 0 ? Double.NaN : (double) agreeing / judged;
+        }
+
+        // Hits with a wrong answer don't count as avoided calls; the agreement
+        // measured on judged hits is assumed to hold for the others too
+        public double avoidedCalls() {
+            return judged == 0 ? 0 : hits * agreementRate();
+        }
+    }
+
+    private record Options(double from, double to, double step, long timeToLiveInSeconds,
+                           double minAgreement, double answerAgreement, boolean embeddings) {
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            var embeddings = false;
+
+            for (int i = 1; i < args.length; i++) {
+                if ("--embeddings".equals(args[i])) {
+                    embeddings = true;
+                } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                    values.put(args[i].substring(2), args[++i]);
+                }
+            }
+
+            return new Options(
+                    Double.parseDouble(values.getOrDefault("from", "0.70")),
+                    Double.parseDouble(values.getOrDefault("to", "0.99")),
+                    Double.parseDouble(values.getOrDefault("step", "0.01")),
+                    Long.parseLong(values.getOrDefault("ttl", LANGCACHE_TIME_TO_LIVE_IN_SECONDS)),
+                    Double.parseDouble(values.getOrDefault("min-agreement", "0.95")),
+                    Double.parseDouble(values.getOrDefault("answer-agreement", "0.6")),
+                    embeddings);
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package io.redis.devrel.demos.myjarvis.services;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.TokenCountEstimator;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.input.PromptTemplate;
+import dev.langchain4j.model.openai.OpenAiTokenCountEstimator;
 import dev.langchain4j.model.scoring.ScoringModel;
 import dev.langchain4j.rag.DefaultRetrievalAugmentor;
 import dev.langchain4j.rag.RetrievalAugmentor;
@@ -12,96 +16,297 @@ import dev.langchain4j.rag.content.aggregator.ReRankingContentAggregator;
 import dev.langchain4j.rag.content.injector.ContentInjector;
 import dev.langchain4j.rag.content.injector.DefaultContentInjector;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.router.DefaultQueryRouter;
 import dev.langchain4j.rag.query.router.LanguageModelQueryRouter;
+import dev.langchain4j.rag.query.router.QueryRouter;
 import dev.langchain4j.rag.query.transformer.CompressingQueryTransformer;
 import dev.langchain4j.rag.query.transformer.QueryTransformer;
 import dev.langchain4j.service.AiServices;
-import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import dev.langchain4j.service.Result;
+import dev.langchain4j.service.memory.ChatMemoryAccess;
+import dev.langchain4j.service.tool.ToolExecution;
+import io.redis.devrel.demos.myjarvis.clients.HttpClients;
+import io.redis.devrel.demos.myjarvis.extensions.ConditionalQueryTransformer;
+import io.redis.devrel.demos.myjarvis.extensions.LocalQueryRouter;
+import io.redis.devrel.demos.myjarvis.extensions.ThresholdReRankingContentAggregator;
 import io.redis.devrel.demos.myjarvis.extensions.WorkingMemoryChat;
 import io.redis.devrel.demos.myjarvis.extensions.WorkingMemoryStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static io.redis.devrel.demos.myjarvis.helpers.Constants.*;
 
 public class ChatAssistantService {
 
     private static final Logger logger = LoggerFactory.getLogger(ChatAssistantService.class);
+    // Prompts and answers as JSON lines, the input of the LangCache replay
+    private static final Logger utteranceLogger = LoggerFactory.getLogger("UtteranceLog");
+    private static final ObjectMapper objectMapper = HttpClients.objectMapper();
+    private static final PromptTemplate USER_MESSAGE_PROMPT_TEMPLATE =
+            PromptTemplate.from(ContextualChatAssistant.USER_MESSAGE_TEMPLATE);
+
+    private static final String LOCAL_QUERY_ROUTER = "local";
+    private static final String LOCAL_RERANKING = "local";
+    private static final String DEFAULT_TOKENIZER_MODEL = "gpt-4o-mini";
+    private static final String USER_MEMORIES_DESCRIPTION =
+            "User specific memories like preferences, events, and interactions";
+    private static final String KNOWLEDGE_BASE_DESCRIPTION =
+            "General knowledge base (not really user related) with facts and data";
+    // No pronouns: nearly every spoken query has one ("what does the manual say
+    // about my warranty"), so they would pull knowledge base questions away
+    private static final Set<String> USER_MEMORIES_KEYWORDS = Set.of(
+            "remember", "remind", "reminder", "told", "said", "favorite", "prefer",
+            "preference", "preferences", "birthday", "appointment", "meeting", "schedule", "plans"
+    );
+    private static final Set<String> KNOWLEDGE_BASE_KEYWORDS = Set.of(
+            "explain", "define", "definition", "meaning", "fact", "facts", "data",
+            "document", "documents", "documentation", "manual", "guide", "policy",
+            "history", "according", "knowledge", "general"
+    );
+
+    // Tools whose result does not depend on when or how often they are called.
+    // An answer that needed any other tool (the current time, a memory write,
+    // a health check) would be wrong or pointless when served again later.
+    // The conversation prompt only asks for the current time when the answer
+    // depends on it, so that answers to other queries can be admitted.
+    private static final Set<String> CACHEABLE_TOOLS = Set.of("setUserTimeZone");
 
     private final List<Object> tools;
     private final ChatModel chatModel;
     private final ScoringModel scoringModel;
     private final MemoryService memoryService;
     private final LangCacheService langCacheService;
+    private final WorkingMemoryStore workingMemoryStore;
+    private final boolean speculativePrefetch = Boolean.parseBoolean(SPECULATIVE_PREFETCH_ENABLED);
+    private final Map<AssistantKey, Object> assistants = new ConcurrentHashMap<>();
+    private final Map<String, SpeculativePrefetch> prefetches = new ConcurrentHashMap<>();
+    private final RetrievalAugmentor routedRetrievalAugmentor;
+    private final RetrievalAugmentor unroutedRetrievalAugmentor;
+    private final TokenCountEstimator tokenCountEstimator = createTokenCountEstimator();
+    private final int maxPromptTokens = Integer.parseInt(WORKING_MEMORY_MAX_PROMPT_TOKENS);
+    private final boolean rollingSummary = Boolean.parseBoolean(WORKING_MEMORY_ROLLING_SUMMARY);
+    private final boolean utteranceLog = Boolean.parseBoolean(LANGCACHE_UTTERANCE_LOG_ENABLED);
 
     public ChatAssistantService(ChatModel chatModel,
                                 ScoringModel scoringModel,
                                 MemoryService memoryService,
                                 LangCacheService langCacheService,
+                                WorkingMemoryStore workingMemoryStore,
                                 List<Object> tools) {
         this.chatModel = chatModel;
         this.scoringModel = scoringModel;
         this.memoryService = memoryService;
         this.langCacheService = langCacheService;
+        this.workingMemoryStore = workingMemoryStore;
         this.tools = tools;
+        this.routedRetrievalAugmentor = createRetrievalAugmentor(true);
+        this.unroutedRetrievalAugmentor = createRetrievalAugmentor(false);
     }
 
     public String processQueryWithoutContext(String systemPrompt, String query) {
         logger.debug("Processing query without context {}", query);
 
-        BasicChatAssistant basicChatAssistant =
-                AiServices.builder(BasicChatAssistant.class)
-                        .chatModel(chatModel)
-                        .tools(tools)
-                        .build();
-
-        return basicChatAssistant.chat(systemPrompt, query);
+        return getAssistant(BasicChatAssistant.class).chat(systemPrompt, query);
     }
 
     public String processQueryWithContext(String systemPrompt,
                                           String userId,
                                           String userName,
                                           String query) {
-        logger.debug("Processing query with context for user: {}", userId);
+        return processQueryWithContext(systemPrompt, userId, userName, query, null);
+    }
 
-        return langCacheService.searchForResponse(userId, query)
-                .orElseGet(() -> {
-                    RetrievalAugmentor augmentor = createRetrievalAugmentor(userId);
+    // The intent selects the cache similarity threshold configured for it, if any
+    public String processQueryWithContext(String systemPrompt,
+                                          String userId,
+                                          String userName,
+                                          String query,
+                                          String intent) {
+        return processQueryWithContext(systemPrompt, userId, userName, query, intent,
+                ExecutionProfile.CONVERSATIONAL);
+    }
 
-                    ContextualChatAssistant contextualChatAssistant =
-                            AiServices.builder(ContextualChatAssistant.class)
-                                .chatModel(chatModel)
-                                .chatMemory(getChatMemory(userId))
-                                .retrievalAugmentor(augmentor)
-                                .tools(tools)
-                                .build();
+    public String processQueryWithContext(String systemPrompt,
+                                          String userId,
+                                          String userName,
+                                          String query,
+                                          String intent,
+                                          ExecutionProfile profile) {
+        logger.debug("Processing query with context for user: {} ({})", userId, profile);
+
+        var cachedResponse = profile.cacheRead()
+                ? langCacheService.searchForResponseAsync(userId, query, intent)
+                : CompletableFuture.completedFuture(Optional.<String>empty());
+
+        // A hit in the in-process cache is already complete, and then there is
+        // nothing worth prefetching
+        var localResponse = cachedResponse.getNow(Optional.empty());
+        if (localResponse.isPresent()) {
+            logger.debug("Local cache hit for user {}", userId);
+            logUtterance(userId, intent, query, localResponse.get(), "local", true);
+            return localResponse.get();
+        }
+
+        // Most queries miss the cache, so the working memory and the user memories
+        // are fetched speculatively alongside the cache lookup instead of after it
+        Optional<SpeculativePrefetch> prefetch = speculativePrefetch
+                ? Optional.of(startPrefetch(userId, query, profile.retrieval()))
+                : Optional.empty();
+
+        var cached = cachedResponse.join();
+        if (cached.isPresent()) {
+            prefetch.ifPresent(SpeculativePrefetch::cancel);
+            logger.debug("Cache hit for user {}, discarding speculative prefetch", userId);
+            logUtterance(userId, intent, query, cached.get(), "remote", true);
+            return cached.get();
+        }
 
-                    String response = contextualChatAssistant.chat(systemPrompt, userId, userName, query);
-                    langCacheService.addNewResponse(userId, query, response);
-                    return response;
-                });
+        prefetch.ifPresent(p -> prefetches.put(userId, p));
+        ContextualChatAssistant contextualChatAssistant = getAssistant(ContextualChatAssistant.class,
+                profile.retrieval(), profile.routing());
+
+        // Taken before the answer is produced, so a memory written meanwhile
+        // (even by a tool call of this very request) keeps it out of the cache
+        var generation = langCacheService.getGeneration(userId);
+
+        try {
+            Result<String> result = contextualChatAssistant.chat(systemPrompt, userId, userName, query);
+            var cacheable = profile.cacheWrite() && isCacheable(query, result);
+            if (cacheable) {
+                langCacheService.addNewResponse(userId, query, result.content(), generation);
+            }
+            logUtterance(userId, intent, query, result.content(), "llm", cacheable);
+            return result.content();
+        } finally {
+            // Chat memories are request scoped; the messages buffered during this
+            // request are written once, and the next request reloads them from the store
+            prefetches.remove(userId);
+            if (contextualChatAssistant.getChatMemory(userId) instanceof WorkingMemoryChat workingMemoryChat) {
+                workingMemoryChat.flush();
+            }
+            contextualChatAssistant.evictChatMemory(userId);
+        }
     }
 
-    private RetrievalAugmentor createRetrievalAugmentor(String userId) {
-        Map<ContentRetriever, String> retrievers = Map.of(
-                getLongTermMemories(userId), "User specific memories like preferences, events, and interactions",
-                getGeneralKnowledgeBase(), "General knowledge base (not really user related) with facts and data"
-        );
+    // Only answers that stand on their own are cached: the query must not refer
+    // back to the conversation, and no tool with a time-dependent or side
+    // effecting result may have been called to produce the answer
+    private boolean isCacheable(String query, Result<String> result) {
+        if (!ConditionalQueryTransformer.isSelfContained(query)) {
+            logger.debug("Not caching response, the query depends on the conversation");
+            return false;
+        }
+
+        var toolExecutions = Optional.ofNullable(result.toolExecutions()).orElse(List.of());
+        for (ToolExecution toolExecution : toolExecutions) {
+            if (!CACHEABLE_TOOLS.contains(toolExecution.request().name())) {
+                logger.debug("Not caching response, it used the {} tool", toolExecution.request().name());
+                return false;
+            }
+        }
+
+        return result.content() != null && !result.content().isBlank();
+    }
+
+    // Off unless enabled, since it writes what users said to the logs
+    private void logUtterance(String userId, String intent, String query,
+                              String response, String source, boolean cacheable) {
+        if (!utteranceLog) {
+            return;
+        }
+
+        try {
+            var utterance = new LinkedHashMap<String, Object>();
+            utterance.put("timestamp", System.currentTimeMillis());
+            utterance.put("userId", userId);
+            utterance.put("intent", intent);
+            utterance.put("prompt", query);
+            utterance.put("response", response);
+            utterance.put("source", source);
+            utterance.put("cacheable", cacheable);
+            utteranceLogger.info(objectMapper.writeValueAsString(utterance));
+        } catch (Exception ex) {
+            logger.warn("Failed to log utterance", ex);
+        }
+    }
+
+    public void warmUp() {
+        // Building the proxies loads and reflects over the assistant interfaces,
+        // so doing it ahead of the first request keeps that off the hot path
+        getAssistant(BasicChatAssistant.class);
+        for (var profile : List.of(ExecutionProfile.CONVERSATIONAL, ExecutionProfile.MEMORY_WRITE)) {
+            getAssistant(ContextualChatAssistant.class, profile.retrieval(), profile.routing());
+        }
+    }
+
+    private <T> T getAssistant(Class<T> assistantType) {
+        return getAssistant(assistantType, false, false);
+    }
+
+    // The retrieval augmentor is fixed when a proxy is built, so there is one
+    // proxy per combination of retrieval and routing
+    private <T> T getAssistant(Class<T> assistantType, boolean retrieval, boolean routing) {
+        var key = new AssistantKey(assistantType, retrieval, retrieval && routing);
+        return assistantType.cast(assistants.computeIfAbsent(key, this::buildAssistant));
+    }
+
+    private Object buildAssistant(AssistantKey key) {
+        logger.info("Building AI service proxy for {} (retrieval: {}, routing: {})",
+                key.assistantType().getSimpleName(), key.retrieval(), key.routing());
+
+        var builder = AiServices.builder(key.assistantType())
+                .chatModel(chatModel)
+                .tools(tools);
+
+        if (ChatMemoryAccess.class.isAssignableFrom(key.assistantType())) {
+            builder.chatMemoryProvider(this::provideChatMemory);
+            if (key.retrieval()) {
+                builder.retrievalAugmentor(key.routing() ? routedRetrievalAugmentor : unroutedRetrievalAugmentor);
+            }
+        }
+
+        return builder.build();
+    }
+
+    private SpeculativePrefetch startPrefetch(String userId, String query, boolean retrieval) {
+        // Search with the exact text the retriever would receive, so the
+        // prefetched result can stand in for it when the query is not rewritten
+        var queryText = USER_MESSAGE_PROMPT_TEMPLATE.apply(Map.of("query", query)).text();
+
+        return new SpeculativePrefetch(
+                queryText,
+                workingMemoryStore.getMessagesAsync(userId),
+                retrieval
+                        ? memoryService.searchUserMemoriesAsync(userId, queryText)
+                        : CompletableFuture.completedFuture(List.of()));
+    }
+
+    private RetrievalAugmentor createRetrievalAugmentor(boolean routing) {
+        // The pipeline is built once per container. Retrievers resolve the
+        // user of the current request from the query metadata (chat memory id).
+        ContentRetriever userMemories = getLongTermMemories();
+        ContentRetriever knowledgeBase = getGeneralKnowledgeBase();
 
         // Compress the user's query and the preceding conversation into a single query.
         // This should significantly improve the quality of the retrieval process.
-        QueryTransformer queryTransformer = new CompressingQueryTransformer(chatModel);
+        // Compression is skipped when there is no conversation to compress yet
+        // or when the query does not refer back to it.
+        QueryTransformer queryTransformer = new ConditionalQueryTransformer(
+                new CompressingQueryTransformer(chatModel));
 
-        // This router make sure to only query the retrievers that are relevant
-        // to the user query. This is more efficient in terms of context size
-        LanguageModelQueryRouter router = LanguageModelQueryRouter.builder()
-                .chatModel(chatModel)
-                .retrieverToDescription(retrievers)
-                .fallbackStrategy(LanguageModelQueryRouter.FallbackStrategy.ROUTE_TO_ALL)
-                .build();
+        // Without routing every query goes to all retrievers, which saves the
+        // routing decision and, with it, possibly an LLM round trip
+        QueryRouter router = routing
+                ? createQueryRouter(userMemories, knowledgeBase)
+                : new DefaultQueryRouter(userMemories, knowledgeBase);
 
         // Creates the precise context injection prompt the LLM will use
         // to resonate over and produce the appropriate answer. The LLM
@@ -114,10 +319,14 @@ public class ChatAssistantService {
 
         // Once the contents are retrieved, we need to aggregate them into
         // a content list that is coherent and relevant to the user's query.
-        ContentAggregator contentAggregator = ReRankingContentAggregator.builder()
-                .scoringModel(scoringModel)
-                .minScore(0.8)
-                .build();
+        // Re-ranking is skipped when there are too few candidates to rank.
+        ContentAggregator contentAggregator = new ThresholdReRankingContentAggregator(
+                ReRankingContentAggregator.builder()
+                        .scoringModel(scoringModel)
+                        .minScore(LOCAL_RERANKING.equalsIgnoreCase(RERANKING_STRATEGY)
+                                ? Double.parseDouble(LOCAL_RERANKING_MIN_SCORE) : 0.8)
+                        .build(),
+                Integer.parseInt(RERANKING_SKIP_THRESHOLD));
 
         return DefaultRetrievalAugmentor.builder()
                 .queryRouter(router)
@@ -127,23 +336,87 @@ public class ChatAssistantService {
                 .build();
     }
 
+    private QueryRouter createQueryRouter(ContentRetriever userMemories, ContentRetriever knowledgeBase) {
+        Map<ContentRetriever, String> retrievers = Map.of(
+                userMemories, USER_MEMORIES_DESCRIPTION,
+                knowledgeBase, KNOWLEDGE_BASE_DESCRIPTION
+        );
+
+        // This router make sure to only query the retrievers that are relevant
+        // to the user query. This is more efficient in terms of context size
+        QueryRouter router = LanguageModelQueryRouter.builder()
+                .chatModel(chatModel)
+                .retrieverToDescription(retrievers)
+                .fallbackStrategy(LanguageModelQueryRouter.FallbackStrategy.ROUTE_TO_ALL)
+                .build();
+
+        // Unless configured otherwise, routing is decided locally from keywords
+        // and the retriever descriptions, and the LLM is only asked when the
+        // local decision is ambiguous. This saves one LLM round trip per query.
+        if (LOCAL_QUERY_ROUTER.equalsIgnoreCase(QUERY_ROUTER_STRATEGY)) {
+            router = LocalQueryRouter.builder()
+                    .route(userMemories, USER_MEMORIES_DESCRIPTION, USER_MEMORIES_KEYWORDS)
+                    .route(knowledgeBase, KNOWLEDGE_BASE_DESCRIPTION, KNOWLEDGE_BASE_KEYWORDS)
+                    .fallbackRouter(router)
+                    .minConfidence(Double.parseDouble(QUERY_ROUTER_MIN_CONFIDENCE))
+                    .build();
+        }
+
+        return router;
+    }
+
+    private ChatMemory provideChatMemory(Object memoryId) {
+        var userId = String.valueOf(memoryId);
+        return Optional.ofNullable(prefetches.get(userId))
+                .map(p -> getChatMemory(userId, p.workingMemory().join()))
+                .orElseGet(() -> getChatMemory(userId));
+    }
+
     private ChatMemory getChatMemory(String userId) {
-        ChatMemoryStore chatMemoryStore = WorkingMemoryStore.builder()
-                .agentMemoryServerUrl(REDIS_AGENT_MEMORY_SERVER_URL)
-                .maxContextWindow(Integer.parseInt(OPENAI_CHAT_MAX_TOKENS))
+        return WorkingMemoryChat.builder()
+                .id(userId)
+                .chatMemoryStore(workingMemoryStore)
+                .bufferedWrites(true)
+                .tokenCountEstimator(tokenCountEstimator)
+                .maxPromptTokens(maxPromptTokens)
+                .rollingSummary(rollingSummary)
                 .build();
+    }
 
+    private ChatMemory getChatMemory(String userId, List<ChatMessage> existingMessages) {
         return WorkingMemoryChat.builder()
                 .id(userId)
-                .chatMemoryStore(chatMemoryStore)
+                .chatMemoryStore(workingMemoryStore)
+                .existingMessages(existingMessages)
+                .bufferedWrites(true)
+                .tokenCountEstimator(tokenCountEstimator)
+                .maxPromptTokens(maxPromptTokens)
+                .rollingSummary(rollingSummary)
                 .build();
     }
 
-    private ContentRetriever getLongTermMemories(String userId) {
-        return query -> memoryService.searchUserMemories(userId, query.text())
-                .stream()
-                .map(Content::from)
-                .toList();
+    private static TokenCountEstimator createTokenCountEstimator() {
+        // The estimate only bounds the prompt, so an approximate
+        // tokenizer is fine when the configured model is unknown
+        try {
+            return new OpenAiTokenCountEstimator(OPENAI_MODEL_NAME);
+        } catch (Exception ex) {
+            logger.warn("No tokenizer for model {}, using {} instead", OPENAI_MODEL_NAME, DEFAULT_TOKENIZER_MODEL);
+            return new OpenAiTokenCountEstimator(DEFAULT_TOKENIZER_MODEL);
+        }
+    }
+
+    private ContentRetriever getLongTermMemories() {
+        return query -> {
+            var userId = String.valueOf(query.metadata().chatMemoryId());
+            return Optional.ofNullable(prefetches.get(userId))
+                    .filter(p -> p.queryText().equals(query.text()))
+                    .map(p -> p.userMemories().join())
+                    .orElseGet(() -> memoryService.searchUserMemories(userId, query.text()))
+                    .stream()
+                    .map(Content::from)
+                    .toList();
+        };
     }
 
     private ContentRetriever getGeneralKnowledgeBase() {
@@ -153,4 +426,16 @@ public class ChatAssistantService {
                 .toList();
     }
 
+    private record AssistantKey(Class<?> assistantType, boolean retrieval, boolean routing) {}
+
+    private record SpeculativePrefetch(
+            String queryText,
+            CompletableFuture<List<ChatMessage>> workingMemory,
+            CompletableFuture<List<String>> userMemories
+    ) {
+        void cancel() {
+            workingMemory.cancel(false);
+            userMemories.cancel(false);
+        }
+    }
 }
@@ -1,19 +1,25 @@
 package io.redis.devrel.demos.myjarvis.services;
 
+import dev.langchain4j.service.MemoryId;
+import dev.langchain4j.service.Result;
 import dev.langchain4j.service.SystemMessage;
 import dev.langchain4j.service.UserMessage;
 import dev.langchain4j.service.V;
+import dev.langchain4j.service.memory.ChatMemoryAccess;
 
-public interface ContextualChatAssistant {
+public interface ContextualChatAssistant extends ChatMemoryAccess {
+
+    String USER_MESSAGE_TEMPLATE = "Query: {{query}}";
 
     @SystemMessage("""
         {{systemPrompt}}
         
         The name of the user is {{userName}}.
         """)
-    @UserMessage("Query: {{query}}")
-    String chat(@V("systemPrompt") String systemPrompt,
-                @V("userId") String userId,
+    @UserMessage(USER_MESSAGE_TEMPLATE)
+    // The result carries the tool executions, which decide whether the answer can be cached
+    Result<String> chat(@V("systemPrompt") String systemPrompt,
+                @MemoryId String userId,
                 @V("userName") String userName,
                 @V("query") String query);
 }
@@ -0,0 +1,18 @@
+package io.redis.devrel.demos.myjarvis.services;
+
+// The stages of the contextual pipeline a call goes through. Each handler
+// declares the profile it needs, so intents that only write don't pay the
+// latency of lookups whose results they can't use.
+public record ExecutionProfile(
+        boolean cacheRead,
+        boolean cacheWrite,
+        boolean retrieval,
+        boolean routing) {
+
+    // Questions and conversation, where every stage can pay off
+    public static final ExecutionProfile CONVERSATIONAL = new ExecutionProfile(true, true, true, true);
+
+    // Prompts that carry per-request ids never repeat, so the cache can't help,
+    // and storing a memory doesn't depend on the memories already stored
+    public static final ExecutionProfile MEMORY_WRITE = new ExecutionProfile(false, false, false, false);
+}
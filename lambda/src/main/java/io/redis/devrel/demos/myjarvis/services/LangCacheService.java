@@ -1,79 +1,438 @@
 package io.redis.devrel.demos.myjarvis.services;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.redis.devrel.demos.myjarvis.clients.HttpClients;
+import io.redis.devrel.demos.myjarvis.clients.JsonBody;
+import io.redis.devrel.demos.myjarvis.clients.JsonBodyWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.util.List;
-import java.util.Map;
-import java.util.Optional;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.redis.devrel.demos.myjarvis.clients.JsonBodyWriter.fragment;
 
 public class LangCacheService {
 
     private static final Logger logger = LoggerFactory.getLogger(LangCacheService.class);
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final HttpClient httpClient = HttpClient.newBuilder()
-            .version(HttpClient.Version.HTTP_2)
-            .build();
+    private static final Logger telemetryLogger = LoggerFactory.getLogger("CacheTelemetry");
+    private static final ObjectMapper objectMapper = HttpClients.objectMapper();
 
     private final String baseUrl;
-    private final String apiKey;
+    private String apiKey;
     private final String cacheId;
     private long timeToLiveInSeconds = 60;
     private double similarityThreshold = 0.85;
+    private Map<String, Double> intentSimilarityThresholds = Map.of();
+    private final URI searchUri;
+    private final URI entriesUri;
+    private volatile String authorizationHeader;
+    private Optional<LocalResponseCache> localCache = Optional.empty();
+    private int maxPendingWrites = 64;
+    private int maxInFlightWrites = 4;
+
+    // Insertion ordered, so the oldest queued write is sent (or dropped) first
+    private final Map<String, PendingWrite> pendingWrites = new LinkedHashMap<>();
+    private final Set<CompletableFuture<Void>> inFlightWrites = ConcurrentHashMap.newKeySet();
+    private int writesInFlight;
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean();
+    private final AtomicLong coalescedWrites = new AtomicLong();
+    private final AtomicLong staleWrites = new AtomicLong();
+
+    // Bumped whenever the memories of a user change. Answers produced under an
+    // older generation may rest on facts that no longer hold, so they are
+    // neither written nor served once the generation has moved on.
+    // Only explicit memory writes in this container bump it; memories the
+    // server extracts from the conversation and bumps made by other
+    // containers go unnoticed, so entries must keep a short time to live.
+    private final Map<String, Long> generations = new ConcurrentHashMap<>();
+    private final AtomicLong droppedWrites = new AtomicLong();
 
     public LangCacheService(String baseUrl, String apiKey, String cacheId) {
         this.baseUrl = baseUrl;
         this.apiKey = apiKey;
         this.cacheId = cacheId;
+        this.searchUri = URI.create(String.format("%s/v1/caches/%s/entries/search", baseUrl, cacheId));
+        this.entriesUri = URI.create(String.format("%s/v1/caches/%s/entries", baseUrl, cacheId));
+        this.authorizationHeader = "Bearer " + apiKey;
     }
 
     public void addNewResponse(String userId, String prompt, String response) {
+        addNewResponse(userId, prompt, response, getGeneration(userId));
+    }
+
+    // Queues the entry and returns right away; it is written in the background.
+    // A newer response to the same prompt from the same user replaces one that
+    // is still queued, and when the queue is full the oldest entry is dropped.
+    // The generation is the one the response was produced under; a response
+    // that was overtaken by a change to the user's memories is not cached.
+    public void addNewResponse(String userId, String prompt, String response, long generation) {
+        var pendingWrite = new PendingWrite(userId, prompt, response, generation);
+
+        synchronized (pendingWrites) {
+            // Checked under the lock, so a concurrent invalidation either sees
+            // this write queued and removes it, or this write sees its generation
+            if (isStale(pendingWrite)) {
+                staleWrites.incrementAndGet();
+                logger.debug("Not caching response for user {}, memories changed meanwhile", userId);
+                return;
+            }
+
+            localCache.ifPresent(cache -> cache.put(userId, prompt, response, timeToLiveInSeconds));
+
+            if (pendingWrites.remove(pendingWrite.key()) != null) {
+                coalescedWrites.incrementAndGet();
+            }
+            pendingWrites.put(pendingWrite.key(), pendingWrite);
+
+            if (pendingWrites.size() > maxPendingWrites) {
+                var eldest = pendingWrites.keySet().iterator().next();
+                pendingWrites.remove(eldest);
+                droppedWrites.incrementAndGet();
+                logger.warn("Cache write queue is full, dropped the oldest entry");
+            }
+        }
+
+        // Building and sending the request happens off the caller's thread too
+        scheduleDispatch();
+    }
+
+    // At most one dispatcher is waiting to start at any time. It clears the
+    // flag before draining, so a write queued after that starts the next one.
+    private void scheduleDispatch() {
+        if (dispatchScheduled.compareAndSet(false, true)) {
+            Thread.startVirtualThread(() -> {
+                dispatchScheduled.set(false);
+                dispatchPendingWrites();
+            });
+        }
+    }
+
+    public long getGeneration(String userId) {
+        return generations.getOrDefault(userId, 0L);
+    }
+
+    // Moves the user to a new generation and discards what was cached for the
+    // old one: the local entries, the queued writes and the remote entries.
+    // Other containers hold their own local entries, which expire with the
+    // local cache's short time to live; the remote delete keeps them from
+    // being refilled.
+    public void invalidateUser(String userId) {
+        CompletableFuture<Void> delete;
+        synchronized (pendingWrites) {
+            generations.merge(userId, 1L, Long::sum);
+            pendingWrites.values().removeIf(pendingWrite -> pendingWrite.userId().equals(userId));
+            localCache.ifPresent(cache -> cache.invalidate(userId));
+
+            // A write already on its way could land after the delete and bring an
+            // old answer back, so the delete is sent once those writes are done
+            delete = CompletableFuture.allOf(inFlightWrites.toArray(CompletableFuture[]::new))
+                    .handle((result, ex) -> null)
+                    .thenCompose(ignored -> deleteEntries(userId));
+            inFlightWrites.add(delete);
+        }
+        delete.whenComplete((result, ex) -> inFlightWrites.remove(delete));
+    }
+
+    private CompletableFuture<Void> deleteEntries(String userId) {
         try {
             String requestBody = objectMapper.writeValueAsString(Map.of(
-                    "prompt", prompt,
-                    "response", response,
-                    "attributes", Map.of("userId", userId),
-                    "ttlMillis", timeToLiveInSeconds * 1000
+                    "attributes", Map.of("userId", userId)
             ));
 
             HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(String.format("%s/v1/caches/%s/entries", baseUrl, cacheId)))
-                    .header("Authorization", "Bearer " + apiKey)
+                    .uri(entriesUri)
+                    .header("Authorization", authorizationHeader)
                     .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
+                    .method("DELETE", HttpRequest.BodyPublishers.ofString(requestBody))
                     .build();
 
-            HttpResponse<String> responseHttp = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            objectMapper.readValue(responseHttp.body(), Map.class);
+            return HttpClients.httpClient()
+                    .sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .handle((response, ex) -> {
+                        if (ex != null) {
+                            logger.error("Failed to delete entries for user {}", userId, ex);
+                        } else if (response.statusCode() >= 300) {
+                            logger.error("Failed to delete entries for user {}, status {}",
+                                    userId, response.statusCode());
+                        }
+                        return null;
+                    });
         } catch (Exception ex) {
-            logger.error("Failed to add new entry", ex);
+            logger.error("Failed to delete entries for user {}", userId, ex);
+            return CompletableFuture.completedFuture(null);
         }
     }
 
-    public Optional<String> searchForResponse(String userId, String prompt) {
-        logger.debug("Searching for response for prompt {}", prompt);
+    private boolean isStale(PendingWrite pendingWrite) {
+        return pendingWrite.generation() != getGeneration(pendingWrite.userId());
+    }
+
+    // Waits for the queued and in-flight writes, up to the timeout. Only called
+    // before a snapshot or at shutdown, never on the response path. Writes
+    // still pending when the function is frozen after a response are frozen
+    // with it: they are lost if the environment is reclaimed, and likely time
+    // out if it is thawed later. A missed write only costs a cache miss.
+    public boolean flush(Duration timeout) {
+        var deadline = System.nanoTime() + timeout.toNanos();
+        logWriteCounters();
+
+        while (true) {
+            dispatchPendingWrites();
+
+            List<CompletableFuture<Void>> inFlight;
+            synchronized (pendingWrites) {
+                if (pendingWrites.isEmpty() && inFlightWrites.isEmpty()) {
+                    return true;
+                }
+                inFlight = List.copyOf(inFlightWrites);
+            }
+
+            var remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                logger.debug("Cache writes still pending after {} ms", timeout.toMillis());
+                return false;
+            }
+
+            try {
+                CompletableFuture.anyOf(inFlight.toArray(CompletableFuture[]::new))
+                        .get(remaining, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ex) {
+                logger.debug("Cache writes still pending after {} ms", timeout.toMillis());
+                return false;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException ex) {
+                // Failures are logged by the write itself
+            }
+        }
+    }
+
+    // Flushes happen once per snapshot or shutdown, so these counters are
+    // rarely reported; they cover the life of the container up to that point
+    private void logWriteCounters() {
+        try {
+            var counters = new LinkedHashMap<String, Object>();
+            counters.put("coalescedWrites", coalescedWrites.get());
+            counters.put("droppedWrites", droppedWrites.get());
+            counters.put("staleWrites", staleWrites.get());
+            telemetryLogger.info(objectMapper.writeValueAsString(counters));
+        } catch (Exception ex) {
+            logger.warn("Failed to log cache write counters", ex);
+        }
+    }
+
+    // Only taking a write off the queue happens under the lock; requests are
+    // built and sent outside it, so enqueuing never waits on a send
+    private void dispatchPendingWrites() {
+        while (true) {
+            PendingWrite pendingWrite;
+            // Tracked from the moment it leaves the queue, so flushes and
+            // invalidations never miss a write that is about to be sent
+            var write = new CompletableFuture<Void>();
+            synchronized (pendingWrites) {
+                if (pendingWrites.isEmpty() || writesInFlight >= maxInFlightWrites) {
+                    return;
+                }
+
+                var iterator = pendingWrites.values().iterator();
+                pendingWrite = iterator.next();
+                iterator.remove();
+                writesInFlight++;
+                inFlightWrites.add(write);
+            }
+
+            sendWrite(pendingWrite).whenComplete((result, ex) -> write.complete(null));
+            write.whenComplete((result, ex) -> {
+                inFlightWrites.remove(write);
+                synchronized (pendingWrites) {
+                    writesInFlight--;
+                }
+                dispatchPendingWrites();
+            });
+        }
+    }
+
+    private CompletableFuture<Void> sendWrite(PendingWrite pendingWrite) {
+        if (isStale(pendingWrite)) {
+            staleWrites.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
 
         try {
             String requestBody = objectMapper.writeValueAsString(Map.of(
-                    "prompt", prompt,
-                    "similarityThreshold", similarityThreshold,
-                    "attributes", Map.of("userId", userId),
-                    "searchStrategies", List.of("semantic")
+                    "prompt", pendingWrite.prompt(),
+                    "response", pendingWrite.response(),
+                    "attributes", Map.of("userId", pendingWrite.userId()),
+                    "ttlMillis", timeToLiveInSeconds * 1000
             ));
 
             HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(String.format("%s/v1/caches/%s/entries/search", baseUrl, cacheId)))
-                    .header("Authorization", "Bearer " + apiKey)
+                    .uri(entriesUri)
+                    .header("Authorization", authorizationHeader)
                     .header("Content-Type", "application/json")
                     .POST(HttpRequest.BodyPublishers.ofString(requestBody))
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            // Nothing in the response is used, so the body is not even read
+            return HttpClients.httpClient()
+                    .sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .handle((response, ex) -> {
+                        if (ex != null) {
+                            logger.error("Failed to add new entry", ex);
+                        } else if (response.statusCode() >= 300) {
+                            logger.error("Failed to add new entry, status {}", response.statusCode());
+                        }
+                        return null;
+                    });
+        } catch (Exception ex) {
+            logger.error("Failed to add new entry", ex);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    public Optional<String> searchForResponse(String userId, String prompt) {
+        return searchForResponse(userId, prompt, null);
+    }
+
+    public Optional<String> searchForResponse(String userId, String prompt, String intent) {
+        logger.debug("Searching for response for prompt {}", prompt);
+
+        var localResponse = searchLocalCache(userId, prompt);
+        if (localResponse.isPresent()) {
+            return localResponse;
+        }
+
+        var generation = getGeneration(userId);
+        var threshold = getSimilarityThreshold(intent);
+        var start = System.nanoTime();
+
+        try {
+            HttpResponse<String> response = HttpClients.httpClient().send(
+                    buildSearchRequest(userId, prompt, threshold), HttpResponse.BodyHandlers.ofString());
+            var entry = recordSearch(intent, threshold, start, parseSearchResponse(response));
+            return cacheLocally(userId, prompt, generation, entry.map(LangCacheEntry::response));
+        } catch (Exception ex) {
+            logger.error("Failed to search for entries", ex);
+        }
+        return Optional.empty();
+    }
+
+    public CompletableFuture<Optional<String>> searchForResponseAsync(String userId, String prompt) {
+        return searchForResponseAsync(userId, prompt, null);
+    }
+
+    // The intent, when given, selects its own similarity threshold if one is configured
+    public CompletableFuture<Optional<String>> searchForResponseAsync(String userId, String prompt, String intent) {
+        logger.debug("Searching asynchronously for response for prompt {}", prompt);
+
+        // A local hit is returned as an already completed future
+        var localResponse = searchLocalCache(userId, prompt);
+        if (localResponse.isPresent()) {
+            return CompletableFuture.completedFuture(localResponse);
+        }
+
+        var generation = getGeneration(userId);
+        var threshold = getSimilarityThreshold(intent);
+        var start = System.nanoTime();
+
+        try {
+            return HttpClients.httpClient()
+                    .sendAsync(buildSearchRequest(userId, prompt, threshold), HttpResponse.BodyHandlers.ofString())
+                    .thenApply(response -> recordSearch(intent, threshold, start, parseSearchResponse(response)))
+                    .thenApply(entry -> cacheLocally(userId, prompt, generation, entry.map(LangCacheEntry::response)))
+                    .exceptionally(ex -> {
+                        logger.error("Failed to search for entries", ex);
+                        return Optional.empty();
+                    });
+        } catch (Exception ex) {
+            logger.error("Failed to search for entries", ex);
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+    }
+
+    // One JSON line per remote search with the outcome and the similarity of
+    // the hit, so the distribution of scores can be compared with the threshold.
+    // The prompt is left out; the utterance log carries it when enabled.
+    private Optional<LangCacheEntry> recordSearch(String intent, double threshold, long start,
+                                                  Optional<LangCacheEntry> entry) {
+        try {
+            var search = new LinkedHashMap<String, Object>();
+            search.put("intent", intent);
+            search.put("threshold", threshold);
+            search.put("hit", entry.isPresent());
+            search.put("similarity", entry.map(LangCacheEntry::similarity).orElse(null));
+            search.put("latencyMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            telemetryLogger.info(objectMapper.writeValueAsString(search));
+        } catch (Exception ex) {
+            logger.warn("Failed to log cache search", ex);
+        }
+
+        return entry;
+    }
+
+    private Optional<String> searchLocalCache(String userId, String prompt) {
+        var localResponse = localCache.flatMap(cache -> cache.get(userId, prompt));
+        localResponse.ifPresent(response -> logger.debug("Local cache hit for user {}", userId));
+        return localResponse;
+    }
+
+    // Remote hits are kept locally too, so the next repeat skips the search.
+    // How long the remote entry has left is unknown, so the local copy only
+    // lives for the local cache's short time to live. A hit for a search that
+    // was overtaken by an invalidation is not used at all.
+    private Optional<String> cacheLocally(String userId, String prompt, long generation,
+                                          Optional<String> response) {
+        if (response.isEmpty()) {
+            return response;
+        }
+
+        synchronized (pendingWrites) {
+            if (generation != getGeneration(userId)) {
+                return Optional.empty();
+            }
+            localCache.ifPresent(cache -> cache.put(userId, prompt, response.get(), timeToLiveInSeconds));
+        }
+        return response;
+    }
+
+    private HttpRequest buildSearchRequest(String userId, String prompt, double threshold) {
+        var requestBody = new CacheSearchRequest(prompt, threshold, userId);
+
+        return HttpRequest.newBuilder()
+                .uri(searchUri)
+                .header("Authorization", authorizationHeader)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(requestBody.toBytes()))
+                .build();
+    }
+
+    private record CacheSearchRequest(String prompt, double similarityThreshold, String userId)
+            implements JsonBody {
+
+        private static final byte[] PROMPT = fragment("{\"prompt\":");
+        private static final byte[] SIMILARITY_THRESHOLD = fragment(",\"similarityThreshold\":");
+        private static final byte[] USER_ID = fragment(",\"attributes\":{\"userId\":");
+        private static final byte[] SEARCH_STRATEGIES = fragment("},\"searchStrategies\":[\"semantic\"]}");
+
+        @Override
+        public void writeTo(JsonBodyWriter writer) {
+            writer.raw(PROMPT).string(prompt)
+                    .raw(SIMILARITY_THRESHOLD).number(similarityThreshold)
+                    .raw(USER_ID).string(userId)
+                    .raw(SEARCH_STRATEGIES);
+        }
+    }
+
+    private Optional<LangCacheEntry> parseSearchResponse(HttpResponse<String> response) {
+        try {
             Map<String, Object> responseMap = objectMapper.readValue(response.body(), Map.class);
             Object dataObj = responseMap.get("data");
             logger.debug("Data found on LangCache: {}", dataObj);
@@ -84,15 +443,22 @@ public class LangCacheService {
                     objectMapper.getTypeFactory().constructCollectionType(List.class, LangCacheEntry.class)
             );
 
-            return data.stream()
-                    .map(langCacheEntry -> langCacheEntry.response)
-                    .findFirst();
+            return data.stream().findFirst();
         } catch (Exception ex) {
-            logger.error("Failed to search for entries", ex);
+            logger.error("Failed to parse search response", ex);
         }
         return Optional.empty();
     }
 
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public void setApiKey(String apiKey) {
+        this.apiKey = apiKey;
+        this.authorizationHeader = "Bearer " + apiKey;
+    }
+
     public long getTimeToLiveInSeconds() {
         return timeToLiveInSeconds;
     }
@@ -109,6 +475,68 @@ public class LangCacheService {
         this.similarityThreshold = similarityThreshold;
     }
 
+    public double getSimilarityThreshold(String intent) {
+        return intent == null ? similarityThreshold
+                : intentSimilarityThresholds.getOrDefault(intent, similarityThreshold);
+    }
+
+    public Map<String, Double> getIntentSimilarityThresholds() {
+        return intentSimilarityThresholds;
+    }
+
+    public void setIntentSimilarityThresholds(Map<String, Double> intentSimilarityThresholds) {
+        this.intentSimilarityThresholds = Map.copyOf(intentSimilarityThresholds);
+    }
+
+    // Parses overrides written as "RememberIntent=0.95,ConversationIntent=0.9"
+    public static Map<String, Double> parseSimilarityThresholds(String thresholds) {
+        Map<String, Double> parsed = new HashMap<>();
+        if (thresholds == null || thresholds.isBlank()) {
+            return parsed;
+        }
+
+        for (var override : thresholds.split(",")) {
+            var parts = override.split("=");
+            try {
+                parsed.put(parts[0].trim(), Double.parseDouble(parts[1].trim()));
+            } catch (Exception ex) {
+                logger.warn("Ignoring invalid similarity threshold override: {}", override);
+            }
+        }
+        return parsed;
+    }
+
+    public Optional<LocalResponseCache> getLocalCache() {
+        return localCache;
+    }
+
+    public void setLocalCache(LocalResponseCache localCache) {
+        this.localCache = Optional.ofNullable(localCache);
+    }
+
+    public int getMaxPendingWrites() {
+        return maxPendingWrites;
+    }
+
+    public void setMaxPendingWrites(int maxPendingWrites) {
+        this.maxPendingWrites = maxPendingWrites;
+    }
+
+    public int getMaxInFlightWrites() {
+        return maxInFlightWrites;
+    }
+
+    public void setMaxInFlightWrites(int maxInFlightWrites) {
+        this.maxInFlightWrites = maxInFlightWrites;
+    }
+
+    private record PendingWrite(String userId, String prompt, String response, long generation) {
+
+        String key() {
+            return userId + '\u0000' + LocalResponseCache.normalize(prompt);
+        }
+    }
+
     private record LangCacheEntry(
             String id,
             String prompt,
@@ -128,6 +556,10 @@ public class LangCacheService {
         private String cacheId;
         private Optional<Long> timeToLiveInSeconds = Optional.empty();
         private Optional<Double> similarityThreshold = Optional.empty();
+        private Optional<Map<String, Double>> intentSimilarityThresholds = Optional.empty();
+        private Optional<LocalResponseCache> localCache = Optional.empty();
+        private Optional<Integer> maxPendingWrites = Optional.empty();
+        private Optional<Integer> maxInFlightWrites = Optional.empty();
 
         public Builder baseUrl(String baseUrl) {
             this.baseUrl = baseUrl;
@@ -154,6 +586,26 @@ public class LangCacheService {
             return this;
         }
 
+        public Builder intentSimilarityThresholds(Map<String, Double> intentSimilarityThresholds) {
+            this.intentSimilarityThresholds = Optional.of(intentSimilarityThresholds);
+            return this;
+        }
+
+        public Builder localCache(LocalResponseCache localCache) {
+            this.localCache = Optional.of(localCache);
+            return this;
+        }
+
+        public Builder maxPendingWrites(int maxPendingWrites) {
+            this.maxPendingWrites = Optional.of(maxPendingWrites);
+            return this;
+        }
+
+        public Builder maxInFlightWrites(int maxInFlightWrites) {
+            this.maxInFlightWrites = Optional.of(maxInFlightWrites);
+            return this;
+        }
+
         public LangCacheService build() {
             if (baseUrl == null) {
                 throw new IllegalArgumentException("baseUrl is required");
@@ -168,6 +620,10 @@ public class LangCacheService {
             LangCacheService langCacheService = new LangCacheService(baseUrl, apiKey, cacheId);
             timeToLiveInSeconds.ifPresent(langCacheService::setTimeToLiveInSeconds);
             similarityThreshold.ifPresent(langCacheService::setSimilarityThreshold);
+            intentSimilarityThresholds.ifPresent(langCacheService::setIntentSimilarityThresholds);
+            localCache.ifPresent(langCacheService::setLocalCache);
+            maxPendingWrites.ifPresent(langCacheService::setMaxPendingWrites);
+            maxInFlightWrites.ifPresent(langCacheService::setMaxInFlightWrites);
 
             return langCacheService;
         }
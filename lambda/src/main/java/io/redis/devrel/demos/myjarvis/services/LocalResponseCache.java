@@ -0,0 +1,187 @@
+package io.redis.devrel.demos.myjarvis.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static io.redis.devrel.demos.myjarvis.helpers.TextHelper.tokenize;
+
+// In-process tier in front of LangCache. Responses are kept per user and looked
+// up by the normalized prompt, so a repeated utterance is answered without a
+// network hop. Optionally, prompts that differ by a word or two are matched
+// through the Hamming distance between their SimHashes.
+public class LocalResponseCache {
+
+    // Spoken prompts come back transcribed either way
+    private static final Map<String, String> CONTRACTIONS = Map.ofEntries(
+            Map.entry("what's", "what is"), Map.entry("who's", "who is"),
+            Map.entry("where's", "where is"), Map.entry("when's", "when is"),
+            Map.entry("how's", "how is"), Map.entry("it's", "it is"),
+            Map.entry("that's", "that is"), Map.entry("i'm", "i am"),
+            Map.entry("you're", "you are"), Map.entry("don't", "do not"),
+            Map.entry("doesn't", "does not"), Map.entry("can't", "cannot"),
+            Map.entry("i've", "i have"), Map.entry("i'd", "i would")
+    );
+
+    private final int maxUsers;
+    private final int maxEntriesPerUser;
+    private final boolean nearDuplicates;
+    private final int maxHammingDistance;
+    private final long maxTimeToLiveInSeconds;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong nearDuplicateHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // Both levels are in access order, so the least recently used user and,
+    // within a user, the least recently used prompt are evicted first
+    private final Map<String, Map<String, CachedResponse>> responsesByUser;
+
+    // Other containers are not told when a user's memories change, so entries
+    // live no longer than maxTimeToLiveInSeconds, however long the remote ones do
+    public LocalResponseCache(int maxUsers, int maxEntriesPerUser,
+                              boolean nearDuplicates, int maxHammingDistance,
+                              long maxTimeToLiveInSeconds) {
+        this.maxTimeToLiveInSeconds = maxTimeToLiveInSeconds;
+        this.maxUsers = maxUsers;
+        this.maxEntriesPerUser = maxEntriesPerUser;
+        this.nearDuplicates = nearDuplicates;
+        this.maxHammingDistance = maxHammingDistance;
+        this.responsesByUser = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, CachedResponse>> eldest) {
+                return size() > LocalResponseCache.this.maxUsers;
+            }
+        };
+    }
+
+    public synchronized Optional<String> get(String userId, String prompt) {
+        var responses = responsesByUser.get(userId);
+        var key = normalize(prompt);
+
+        if (responses == null || key.isEmpty()) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+
+        var now = System.nanoTime();
+        responses.values().removeIf(cached -> cached.isExpired(now));
+
+        var exact = responses.get(key);
+        if (exact != null) {
+            hits.incrementAndGet();
+            return Optional.of(exact.response());
+        }
+
+        if (nearDuplicates) {
+            var simHash = simHash(key);
+            for (var cached : responses.values()) {
+                if (Long.bitCount(cached.simHash() ^ simHash) <= maxHammingDistance) {
+                    nearDuplicateHits.incrementAndGet();
+                    return Optional.of(cached.response());
+                }
+            }
+        }
+
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    public synchronized void put(String userId, String prompt, String response, long timeToLiveInSeconds) {
+        var key = normalize(prompt);
+        if (key.isEmpty() || response == null) {
+            return;
+        }
+
+        var responses = responsesByUser.computeIfAbsent(userId, id -> new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > maxEntriesPerUser;
+            }
+        });
+
+        var timeToLive = Math.min(timeToLiveInSeconds, maxTimeToLiveInSeconds);
+        var expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeToLive);
+        responses.put(key, new CachedResponse(response, simHash(key), expiresAt));
+    }
+
+    public synchronized void invalidate(String userId) {
+        responsesByUser.remove(userId);
+    }
+
+    // Case, punctuation, spacing and contractions don't change what was asked
+    static String normalize(String prompt) {
+        var apostrophes = prompt == null ? null : prompt.replace('\u2019', '\'');
+
+        return Arrays.stream(tokenize(apostrophes))
+                .map(token -> CONTRACTIONS.getOrDefault(token, token))
+                .map(token -> token.replace("'", ""))
+                .filter(token -> !token.isEmpty())
+                .collect(Collectors.joining(" "));
+    }
+
+    // 64-bit SimHash over the words and word pairs of the normalized prompt.
+    // Pairs keep word order meaningful, so "call me" and "me call" differ.
+    static long simHash(String normalizedPrompt) {
+        var words = normalizedPrompt.split(" ");
+        var weights = new int[Long.SIZE];
+
+        for (int i = 0; i < words.length; i++) {
+            addFeature(weights, words[i]);
+            if (i > 0) {
+                addFeature(weights, words[i - 1] + " " + words[i]);
+            }
+        }
+
+        long simHash = 0;
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            if (weights[bit] > 0) {
+                simHash |= 1L << bit;
+            }
+        }
+        return simHash;
+    }
+
+    private static void addFeature(int[] weights, String feature) {
+        var hash = hash(feature);
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            weights[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+        }
+    }
+
+    // FNV-1a followed by a SplitMix64 finalizer to spread short inputs over all bits
+    private static long hash(String feature) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : feature.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getNearDuplicateHitCount() {
+        return nearDuplicateHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private record CachedResponse(String response, long simHash, long expiresAt) {
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
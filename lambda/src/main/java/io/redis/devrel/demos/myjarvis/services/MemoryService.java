@@ -1,50 +1,66 @@
 package io.redis.devrel.demos.myjarvis.services;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.redis.devrel.demos.myjarvis.clients.AgentMemoryClient;
+import io.redis.devrel.demos.myjarvis.clients.HttpClients;
+import io.redis.devrel.demos.myjarvis.clients.JsonBody;
+import io.redis.devrel.demos.myjarvis.clients.JsonBodyWriter;
+import io.redis.devrel.demos.myjarvis.clients.JsonStreamReader;
 import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
+import java.io.InputStream;
 import java.net.http.HttpResponse;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 
+import static io.redis.devrel.demos.myjarvis.clients.JsonBodyWriter.fragment;
 import static io.redis.devrel.demos.myjarvis.helpers.Constants.*;
 
 public class MemoryService {
 
     private static final Logger logger = LoggerFactory.getLogger(MemoryService.class);
-    private static final ObjectMapper objectMapper = createObjectMapper();
-    private static final HttpClient httpClient = HttpClient.newBuilder()
-            .version(HttpClient.Version.HTTP_2)
-            .build();
+    private static final ObjectMapper objectMapper = HttpClients.objectMapper();
 
     private static final String SHORT_TERM_MEMORY_NAMESPACE = "short-term-memory";
     private static final String LONG_TERM_MEMORY_NAMESPACE = "long-term-memory";
     private static final String KNOWLEDGE_NAMESPACE = "knowledge-base";
     private static final String MEMORY_TYPE_SEMANTIC = "semantic";
+    private static final Set<String> TEXT_FIELD = Set.of("text");
 
-    private static ObjectMapper createObjectMapper() {
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.findAndRegisterModules();
-        return mapper;
+    private final AgentMemoryClient agentMemoryClient;
+    private final List<Consumer<String>> userMemoryListeners = new CopyOnWriteArrayList<>();
+    private final int userMemoriesSearchLimit = Integer.parseInt(USER_MEMORIES_SEARCH_LIMIT);
+    private final int knowledgeBaseSearchLimit = Integer.parseInt(KNOWLEDGE_BASE_SEARCH_LIMIT);
+    private final int knowledgeBaseWriteBatchSize = Integer.parseInt(KNOWLEDGE_BASE_WRITE_BATCH_SIZE);
+    private final int knowledgeBaseWriteBatchMaxChars = Integer.parseInt(KNOWLEDGE_BASE_WRITE_BATCH_MAX_CHARS);
+
+    // Shared by every batched write, so concurrent ingestions together never
+    // have more requests in flight against the server than configured
+    private final Semaphore knowledgeBaseWritePermits =
+            new Semaphore(Integer.parseInt(KNOWLEDGE_BASE_WRITE_MAX_IN_FLIGHT));
+
+    public MemoryService(AgentMemoryClient agentMemoryClient) {
+        this.agentMemoryClient = agentMemoryClient;
     }
 
     public List<String> searchUserMemories(String userId, String memory) {
-        var searchRequest = Map.of(
-                "session_id", Map.of("eq", userId),
-                "namespace", Map.of("any",
-                        List.of(SHORT_TERM_MEMORY_NAMESPACE,
-                                LONG_TERM_MEMORY_NAMESPACE)),
-                "text", memory,
-                "limit", USER_MEMORIES_SEARCH_LIMIT
-        );
+        return executeSearch(new UserMemoriesSearchRequest(userId, memory, userMemoriesSearchLimit));
+    }
+
+    public CompletableFuture<List<String>> searchUserMemoriesAsync(String userId, String memory) {
+        return executeSearchAsync(new UserMemoriesSearchRequest(userId, memory, userMemoriesSearchLimit));
+    }
 
-        return extractTexts(executeSearch(searchRequest));
+    // Called with the user id after a memory was stored for that user, so
+    // anything derived from the user's previous memories can be discarded
+    public void addUserMemoryListener(Consumer<String> listener) {
+        userMemoryListeners.add(listener);
     }
 
     public boolean createUserMemory(String sessionId, String userId,
@@ -60,17 +76,14 @@ public class MemoryService {
         );
 
         try {
-            var request = buildJsonRequest(
-                    URI.create(REDIS_AGENT_MEMORY_SERVER_URL + "/v1/long-term-memory/"),
-                    memoryData,
-                    "POST"
-            );
-
-            var response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            var response = agentMemoryClient.createLongTermMemories(memoryData);
 
             if (response.statusCode() == HttpStatus.SC_OK) {
                 var root = objectMapper.readTree(response.body());
-                return "ok".equals(root.path("status").asText());
+                if ("ok".equals(root.path("status").asText())) {
+                    userMemoryListeners.forEach(listener -> listener.accept(userId));
+                    return true;
+                }
             }
         } catch (Exception ex) {
             logger.error("Error saving long-term memory", ex);
@@ -79,87 +92,175 @@ public class MemoryService {
         return false;
     }
 
-    public void createKnowledgeBaseEntry(String memory) {
-        var sanitizedMemory = Optional.ofNullable(memory)
-                .map(m -> m.replaceAll("[\\r\\n]+", " "))
-                .map(m -> m.replaceAll("[\\p{Cntrl}&&[^\\r\\n\\t]]", ""))
-                .orElse("");
-
-        var formattedMemory = "Fact from %s, %s".formatted(Instant.now(), sanitizedMemory);
+    public boolean createKnowledgeBaseEntry(String memory) {
+        return createKnowledgeBaseEntry(UUID.randomUUID().toString(), memory);
+    }
 
+    // Writing an entry again with the same id replaces it, so callers that
+    // derive the id from the source can safely retry or resume a write
+    public boolean createKnowledgeBaseEntry(String entryId, String memory) {
         var memoryData = Map.of(
-                "memories", List.of(Map.of(
-                        "id", "knowledge.entry.%s".formatted(UUID.randomUUID()),
-                        "namespace", KNOWLEDGE_NAMESPACE,
-                        "text", formattedMemory,
-                        "memory_type", MEMORY_TYPE_SEMANTIC
-                ))
+                "memories", List.of(knowledgeBaseMemory(new KnowledgeBaseEntry(entryId, memory)))
         );
 
         try {
-            var request = buildJsonRequest(
-                    URI.create(REDIS_AGENT_MEMORY_SERVER_URL + "/v1/long-term-memory/"),
-                    memoryData,
-                    "POST"
-            );
-
-            httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            var response = agentMemoryClient.createLongTermMemories(memoryData);
+            return response.statusCode() == HttpStatus.SC_OK;
         } catch (Exception ex) {
             logger.error("Exception occurred while creating long-term memory", ex);
         }
+
+        return false;
     }
 
-    public List<String> searchKnowledgeBase(String memory) {
-        var searchRequest = Map.of(
-                "namespace", Map.of("eq", KNOWLEDGE_NAMESPACE),
-                "text", memory,
-                "limit", KNOWLEDGE_BASE_SEARCH_LIMIT
+    // Groups the entries into batches bounded by count and text size and posts
+    // them concurrently, with at most a fixed number of requests in flight.
+    // Returns the ids of the entries whose batch could not be stored.
+    public Set<String> createKnowledgeBaseEntries(List<KnowledgeBaseEntry> entries) {
+        Set<String> failedIds = Collections.synchronizedSet(new HashSet<>());
+        List<CompletableFuture<Void>> pendingWrites = new ArrayList<>();
+
+        for (var batch : toBatches(entries)) {
+            try {
+                knowledgeBaseWritePermits.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                batch.forEach(entry -> failedIds.add(entry.id()));
+                continue;
+            }
+
+            var memoryData = Map.of(
+                    "memories", batch.stream().map(this::knowledgeBaseMemory).toList()
+            );
+
+            CompletableFuture<HttpResponse<String>> write;
+            try {
+                write = agentMemoryClient.createLongTermMemoriesAsync(memoryData);
+            } catch (Exception ex) {
+                // No future to release the permit on completion
+                knowledgeBaseWritePermits.release();
+                logger.error("Failed to store a batch of {} knowledge base entries", batch.size(), ex);
+                batch.forEach(entry -> failedIds.add(entry.id()));
+                continue;
+            }
+
+            pendingWrites.add(write
+                    .handle((response, ex) -> {
+                        knowledgeBaseWritePermits.release();
+
+                        if (ex != null || response.statusCode() != HttpStatus.SC_OK) {
+                            logger.error("Failed to store a batch of {} knowledge base entries{}",
+                                    batch.size(), ex != null ? "" : ", status " + response.statusCode(), ex);
+                            batch.forEach(entry -> failedIds.add(entry.id()));
+                        }
+                        return null;
+                    }));
+        }
+
+        CompletableFuture.allOf(pendingWrites.toArray(CompletableFuture[]::new)).join();
+
+        logger.debug("Stored {} knowledge base entries in {} requests, {} failed",
+                entries.size() - failedIds.size(), pendingWrites.size(), failedIds.size());
+
+        return failedIds;
+    }
+
+    private List<List<KnowledgeBaseEntry>> toBatches(List<KnowledgeBaseEntry> entries) {
+        List<List<KnowledgeBaseEntry>> batches = new ArrayList<>();
+        List<KnowledgeBaseEntry> batch = new ArrayList<>();
+        var batchChars = 0;
+
+        for (var entry : entries) {
+            var entryChars = entry.text().length();
+
+            if (!batch.isEmpty() && (batch.size() >= knowledgeBaseWriteBatchSize
+                    || batchChars + entryChars > knowledgeBaseWriteBatchMaxChars)) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchChars = 0;
+            }
+
+            batch.add(entry);
+            batchChars += entryChars;
+        }
+
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+
+        return batches;
+    }
+
+    private Map<String, String> knowledgeBaseMemory(KnowledgeBaseEntry entry) {
+        var sanitizedMemory = Optional.ofNullable(entry.text())
+                .map(m -> m.replaceAll("[\\r\\n]+", " "))
+                .map(m -> m.replaceAll("[\\p{Cntrl}&&[^\\r\\n\\t]]", ""))
+                .orElse("");
+
+        var formattedMemory = "Fact from %s, %s".formatted(Instant.now(), sanitizedMemory);
+
+        return Map.of(
+                "id", "knowledge.entry.%s".formatted(entry.id()),
+                "namespace", KNOWLEDGE_NAMESPACE,
+                "text", formattedMemory,
+                "memory_type", MEMORY_TYPE_SEMANTIC
         );
+    }
 
-        return extractTexts(executeSearch(searchRequest));
+    public List<String> searchKnowledgeBase(String memory) {
+        return executeSearch(new KnowledgeBaseSearchRequest(memory, knowledgeBaseSearchLimit));
     }
 
-    private HttpRequest buildJsonRequest(URI uri, Object body, String method) {
-        try {
-            var requestBuilder = HttpRequest.newBuilder()
-                    .uri(uri)
-                    .header("Content-Type", "application/json");
-
-            var bodyPublisher = body != null
-                    ? HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body))
-                    : HttpRequest.BodyPublishers.noBody();
-
-            return switch (method) {
-                case "POST" -> requestBuilder.POST(bodyPublisher).build();
-                case "DELETE" -> requestBuilder.DELETE().build();
-                default -> throw new IllegalArgumentException("Unsupported method: " + method);
-            };
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to build request", e);
+    public CompletableFuture<List<String>> searchKnowledgeBaseAsync(String memory) {
+        return executeSearchAsync(new KnowledgeBaseSearchRequest(memory, knowledgeBaseSearchLimit));
+    }
+
+    public record KnowledgeBaseEntry(String id, String text) {}
+
+    private sealed interface MemorySearchRequest extends JsonBody
+            permits UserMemoriesSearchRequest, KnowledgeBaseSearchRequest {
+        int limit();
+    }
+
+    // Only the session, the text and the limit vary per request; everything
+    // else is encoded once and copied into the request buffer as-is
+    private record UserMemoriesSearchRequest(String userId, String text, int limit)
+            implements MemorySearchRequest {
+
+        private static final byte[] SESSION_ID = fragment("{\"session_id\":{\"eq\":");
+        private static final byte[] NAMESPACE_AND_TEXT = fragment("},\"namespace\":{\"any\":[\"" +
+                SHORT_TERM_MEMORY_NAMESPACE + "\",\"" + LONG_TERM_MEMORY_NAMESPACE + "\"]},\"text\":");
+        private static final byte[] LIMIT = fragment(",\"limit\":");
+        private static final byte[] END = fragment("}");
+
+        @Override
+        public void writeTo(JsonBodyWriter writer) {
+            writer.raw(SESSION_ID).string(userId)
+                    .raw(NAMESPACE_AND_TEXT).string(text)
+                    .raw(LIMIT).number(limit)
+                    .raw(END);
         }
     }
 
-    private List<JsonNode> executeSearch(Map<String, Object> searchRequest) {
-        try {
-            var request = buildJsonRequest(
-                    URI.create(REDIS_AGENT_MEMORY_SERVER_URL + "/v1/long-term-memory/search?optimize_query=false"),
-                    searchRequest,
-                    "POST"
-            );
+    private record KnowledgeBaseSearchRequest(String text, int limit) implements MemorySearchRequest {
 
-            logger.debug("Executing request: " + request.toString());
-            var response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            logger.debug("Finishing search execution. Response status: " + response.statusCode());
+        private static final byte[] NAMESPACE_AND_TEXT = fragment(
+                "{\"namespace\":{\"eq\":\"" + KNOWLEDGE_NAMESPACE + "\"},\"text\":");
+        private static final byte[] LIMIT = fragment(",\"limit\":");
+        private static final byte[] END = fragment("}");
 
-            if (response.statusCode() == HttpStatus.SC_OK) {
-                var memories = objectMapper.readTree(response.body()).path("memories");
-                if (!memories.isEmpty()) {
-                    var result = new ArrayList<JsonNode>();
-                    memories.forEach(result::add);
-                    logger.debug("Number of memories returned: {}", memories.size());
-                    return result;
-                }
-            }
+        @Override
+        public void writeTo(JsonBodyWriter writer) {
+            writer.raw(NAMESPACE_AND_TEXT).string(text)
+                    .raw(LIMIT).number(limit)
+                    .raw(END);
+        }
+    }
+
+    private List<String> executeSearch(MemorySearchRequest searchRequest) {
+        try {
+            return parseSearchResponse(agentMemoryClient.searchLongTermMemory(searchRequest, false),
+                    searchRequest.limit());
         } catch (Exception ex) {
             logger.error("Error during memory search", ex);
         }
@@ -167,10 +268,32 @@ public class MemoryService {
         return List.of();
     }
 
-    private List<String> extractTexts(List<JsonNode> nodes) {
-        return nodes.stream()
-                .map(node -> node.path("text").asText())
-                .filter(text -> !text.isEmpty())
-                .toList();
+    private CompletableFuture<List<String>> executeSearchAsync(MemorySearchRequest searchRequest) {
+        return agentMemoryClient.searchLongTermMemoryAsync(searchRequest, false)
+                .thenApply(response -> parseSearchResponse(response, searchRequest.limit()))
+                .exceptionally(ex -> {
+                    logger.error("Error during memory search", ex);
+                    return List.of();
+                });
+    }
+
+    private List<String> parseSearchResponse(HttpResponse<InputStream> response, int limit) {
+        if (response.statusCode() != HttpStatus.SC_OK) {
+            JsonStreamReader.discard(response.body());
+            return List.of();
+        }
+
+        try {
+            // Only the text of each memory is materialized, up to the requested limit
+            var texts = JsonStreamReader.readArray(response.body(), "memories", TEXT_FIELD,
+                    fields -> Optional.ofNullable(fields.get("text")).filter(text -> !text.isEmpty()),
+                    limit);
+            logger.debug("Number of memories returned: {}", texts.size());
+            return texts;
+        } catch (Exception ex) {
+            logger.error("Error parsing memory search response", ex);
+        }
+
+        return List.of();
     }
-}
\ No newline at end of file
+}
@@ -1,31 +1,39 @@
 package io.redis.devrel.demos.myjarvis.services;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.redis.devrel.demos.myjarvis.clients.AgentMemoryClient;
+import io.redis.devrel.demos.myjarvis.clients.HttpClients;
+import io.redis.devrel.demos.myjarvis.clients.JsonBody;
+import io.redis.devrel.demos.myjarvis.clients.JsonBodyWriter;
+import io.redis.devrel.demos.myjarvis.clients.JsonStreamReader;
 import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
+import java.io.InputStream;
 import java.net.http.HttpResponse;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
-import static io.redis.devrel.demos.myjarvis.helpers.Constants.*;
+import static io.redis.devrel.demos.myjarvis.clients.JsonBodyWriter.fragment;
 
 public class UserService {
 
     private static final Logger logger = LoggerFactory.getLogger(UserService.class);
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final HttpClient httpClient = HttpClient.newBuilder()
-            .version(HttpClient.Version.HTTP_2)
-            .build();
+    private static final ObjectMapper objectMapper = HttpClients.objectMapper();
 
     private static final String USERS_NAMESPACE = "users";
     private static final String MEMORY_TYPE_SEMANTIC = "semantic";
+    private static final Set<String> TEXT_FIELD = Set.of("text");
+
+    private final AgentMemoryClient agentMemoryClient;
+
+    public UserService(AgentMemoryClient agentMemoryClient) {
+        this.agentMemoryClient = agentMemoryClient;
+    }
 
     public Optional<String> getUserName(String userId) {
         if (userId == null || userId.isBlank()) {
@@ -36,7 +44,19 @@ public class UserService {
         var searchRequest = buildUserSearchRequest(userId);
         return searchUser(searchRequest)
                 .toOptional()
-                .flatMap(this::extractUserNameFromResponse);
+                .flatMap(this::extractUserName);
+    }
+
+    public CompletableFuture<Optional<String>> getUserNameAsync(String userId) {
+        if (userId == null || userId.isBlank()) {
+            logger.warn("Invalid userId provided");
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        var searchRequest = buildUserSearchRequest(userId);
+        return searchUserAsync(searchRequest)
+                .thenApply(result -> result.toOptional()
+                        .flatMap(this::extractUserName));
     }
 
     public boolean createUser(String userId, String userName) {
@@ -64,49 +84,65 @@ public class UserService {
         }
     }
 
-    private Map<String, Object> buildUserSearchRequest(String userId) {
-        return Map.of(
-                "id", Map.of("eq", userId),
-                "user_id", Map.of("eq", userId),
-                "namespace", Map.of("eq", USERS_NAMESPACE),
-                "limit", 1
-        );
+    private UserSearchRequest buildUserSearchRequest(String userId) {
+        return new UserSearchRequest(userId);
     }
 
-    private ApiResult<JsonNode> searchUser(Map<String, Object> searchRequest) {
-        try {
-            var requestBody = objectMapper.writeValueAsString(searchRequest);
-            var request = HttpRequest.newBuilder()
-                    .uri(URI.create(REDIS_AGENT_MEMORY_SERVER_URL + "/v1/long-term-memory/search"))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                    .build();
+    private record UserSearchRequest(String userId) implements JsonBody {
 
-            var response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        private static final byte[] ID = fragment("{\"id\":{\"eq\":");
+        private static final byte[] USER_ID = fragment("},\"user_id\":{\"eq\":");
+        private static final byte[] NAMESPACE_AND_LIMIT = fragment(
+                "},\"namespace\":{\"eq\":\"" + USERS_NAMESPACE + "\"},\"limit\":1}");
 
-            if (response.statusCode() == HttpStatus.SC_OK) {
-                var responseJson = objectMapper.readTree(response.body());
-                return new ApiResult.Success<>(responseJson);
-            } else {
-                return new ApiResult.Failure<>(
-                        "Unexpected status code",
-                        response.statusCode()
-                );
-            }
+        @Override
+        public void writeTo(JsonBodyWriter writer) {
+            writer.raw(ID).string(userId)
+                    .raw(USER_ID).string(userId)
+                    .raw(NAMESPACE_AND_LIMIT);
+        }
+    }
+
+    private ApiResult<List<String>> searchUser(UserSearchRequest searchRequest) {
+        try {
+            return toApiResult(agentMemoryClient.searchLongTermMemory(searchRequest));
         } catch (Exception ex) {
-            logger.error("Error searching for user: {}", searchRequest.get("user_id"), ex);
+            logger.error("Error searching for user: {}", searchRequest.userId(), ex);
             return new ApiResult.Failure<>("Exception occurred: " + ex.getMessage(), -1);
         }
     }
 
-    private Optional<String> extractUserNameFromResponse(JsonNode response) {
-        return Optional.ofNullable(response)
-                .map(node -> node.path("memories"))
-                .filter(memories -> !memories.isEmpty() && !memories.isMissingNode())
-                .map(memories -> memories.path(0))
-                .map(firstMemory -> firstMemory.path("text"))
-                .filter(JsonNode::isTextual)
-                .map(JsonNode::asText)
+    private CompletableFuture<ApiResult<List<String>>> searchUserAsync(UserSearchRequest searchRequest) {
+        return agentMemoryClient.searchLongTermMemoryAsync(searchRequest)
+                .thenApply(this::toApiResult)
+                .exceptionally(ex -> {
+                    logger.error("Error searching for user: {}", searchRequest.userId(), ex);
+                    return new ApiResult.Failure<>("Exception occurred: " + ex.getMessage(), -1);
+                });
+    }
+
+    private ApiResult<List<String>> toApiResult(HttpResponse<InputStream> response) {
+        if (response.statusCode() != HttpStatus.SC_OK) {
+            JsonStreamReader.discard(response.body());
+            return new ApiResult.Failure<>(
+                    "Unexpected status code",
+                    response.statusCode()
+            );
+        }
+
+        try {
+            // Only the text of the first memory is needed
+            var texts = JsonStreamReader.readArray(response.body(), "memories", TEXT_FIELD,
+                    fields -> Optional.of(fields.getOrDefault("text", "")), 1);
+            return new ApiResult.Success<>(texts);
+        } catch (Exception ex) {
+            return new ApiResult.Failure<>("Invalid response body: " + ex.getMessage(), response.statusCode());
+        }
+    }
+
+    private Optional<String> extractUserName(List<String> texts) {
+        return texts.stream()
+                .findFirst()
                 .filter(text -> !text.isBlank());
     }
 
@@ -134,14 +170,7 @@ public class UserService {
 
     private boolean createUserAsLongTermMemory(Map<String, Object> longTermMemory) {
         try {
-            var requestBody = objectMapper.writeValueAsString(longTermMemory);
-            var request = HttpRequest.newBuilder()
-                    .uri(URI.create(REDIS_AGENT_MEMORY_SERVER_URL + "/v1/long-term-memory/"))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                    .build();
-
-            var response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            var response = agentMemoryClient.createLongTermMemories(longTermMemory);
 
             if (response.statusCode() == HttpStatus.SC_OK) {
                 var root = objectMapper.readTree(response.body());